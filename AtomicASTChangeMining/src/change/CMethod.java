@@ -17,9 +17,11 @@ import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 
+import pdg.graph.ParsedFileCache;
 import pdg.graph.PDGBuildingContext;
 import pdg.graph.PDGGraph;
 import treed.TreedMapper;
+import utils.Config;
 import utils.FileIO;
 import utils.JavaASTUtil;
 import utils.Pair;
@@ -484,10 +486,17 @@ public class CMethod extends ChangeEntity {
 	}
 
 	public ChangeGraph getChangeGraph(Repository repository, RevCommit commit) {
-		PDGGraph pdg1 = new PDGGraph(this.declaration, new PDGBuildingContext(repository, commit, this.getCFile().getPath(), false));
-		pdg1.buildChangeGraph(0);
-		PDGGraph pdg2 = new PDGGraph(this.mappedMethod.declaration, new PDGBuildingContext(repository, commit, this.mappedMethod.getCFile().getPath(), false));
-		pdg2.buildChangeGraph(1);
+		return getChangeGraph(new ParsedFileCache(repository, commit));
+	}
+
+	/**
+	 * @param fileCache parsed files of the commit, shared by all methods of the commit
+	 */
+	public ChangeGraph getChangeGraph(ParsedFileCache fileCache) {
+		PDGGraph pdg1 = new PDGGraph(this.declaration, new PDGBuildingContext(fileCache, this.getCFile().getPath(), Config.INTER_PROCEDURAL));
+		pdg1.buildChangeGraph(0, Config.changeNeighborhoodHops);
+		PDGGraph pdg2 = new PDGGraph(this.mappedMethod.declaration, new PDGBuildingContext(fileCache, this.mappedMethod.getCFile().getPath(), Config.INTER_PROCEDURAL));
+		pdg2.buildChangeGraph(1, Config.changeNeighborhoodHops);
 		pdg2.buildChangeGraph(pdg1);
 		return new ChangeGraph(pdg2);
 	}
@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 
 import main.MainChangeAnalyzer;
@@ -22,6 +23,7 @@ import org.eclipse.jgit.revwalk.RevCommit;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLogEntry;
 
+import pdg.graph.ParsedFileCache;
 import repository.GitConnector;
 import repository.SVNConnector;
 import utils.Config;
@@ -38,6 +40,10 @@ public class ChangeAnalyzer {
 	private HashMap<Long, SVNLogEntry> logEntries;
 	private ArrayList<RevisionAnalyzer> revisionAnalyzers = new ArrayList<RevisionAnalyzer>();
 	private CProject cproject;
+	private SegmentWriter segmentWriter;
+	private LabelIndex labelIndex;
+	// commits written one file each by earlier versions
+	private HashSet<String> extractedFiles = new HashSet<>();
 //	private PrintStream ps;
 
 	public ChangeAnalyzer(String projectName, int projectId, String svnUrl,
@@ -99,10 +105,78 @@ public class ChangeAnalyzer {
 		return numOfCodeRevisions;
 	}
 
-	public void incrementNumOfCodeRevisions() {
+	public synchronized void incrementNumOfCodeRevisions() {
 		this.numOfCodeRevisions++;
 	}
 
+	public synchronized int getNumOfExtractedRevisions() {
+		return numOfExtractedRevisions;
+	}
+
+	synchronized void incrementNumOfExtractedRevisions() {
+		this.numOfExtractedRevisions++;
+	}
+
+	void beginGitAnalysis() {
+		this.cproject = new CProject(projectId, projectName);
+		this.cproject.revisions = new ArrayList<CRevision>();
+		this.numOfCodeRevisions = 0;
+		this.numOfRevisions = 0;
+		this.numOfExtractedRevisions = 0;
+		File dir = new File(MainChangeAnalyzer.outputPath + "/" + projectName);
+		this.extractedFiles.clear();
+		String[] names = dir.list();
+		if (names != null)
+			for (String name : names)
+				if (ChangeGraphIO.isChangeGraphFile(name))
+					this.extractedFiles.add(name.substring(0, name.lastIndexOf('.')));
+		try {
+			this.segmentWriter = new SegmentWriter(dir, Config.segmentSize);
+		} catch (IOException e) {
+			// change graphs then go to one file per commit, see writeChangeGraphs
+			System.err.println("Cannot open the segments of " + projectName + ", writing one file per commit: " + e.getMessage());
+			this.segmentWriter = null;
+		}
+		this.labelIndex = LabelIndex.read(new File(dir, LabelIndex.FILE_NAME), projectName);
+		if (this.labelIndex == null)
+			this.labelIndex = new LabelIndex();
+		// commits appended without reaching the index, e.g. by a run cut off in between
+		for (File segment : SegmentReader.listSegments(dir)) {
+			try (SegmentReader reader = new SegmentReader(segment)) {
+				for (String commit : reader.getCommits()) {
+					if (this.labelIndex.getCommitId(projectName, commit) >= 0)
+						continue;
+					HashMap<String, HashMap<String, ChangeGraph>> changeGraphs = reader.read(commit);
+					if (changeGraphs != null)
+						this.labelIndex.add(projectName, commit, changeGraphs);
+				}
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+	}
+
+	void endGitAnalysis() {
+		this.cproject.numOfAllRevisions = this.numOfRevisions;
+		if (this.segmentWriter != null) {
+			try {
+				this.segmentWriter.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			this.segmentWriter = null;
+		}
+		if (this.labelIndex != null && this.labelIndex.getNumOfCommits() > 0) {
+			try {
+				this.labelIndex.write(new File(MainChangeAnalyzer.outputPath + "/" + projectName + "/" + LabelIndex.FILE_NAME));
+				// the index now has every commit of the journal
+				new File(MainChangeAnalyzer.outputPath + "/" + projectName + "/" + LabelIndex.JOURNAL_NAME).delete();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
 	public SVNLogEntry getLogEntry(long revision) {
 		return this.logEntries.get(revision);
 	}
@@ -188,25 +262,10 @@ public class ChangeAnalyzer {
 	}
 
 	public void analyzeGit() {
-		this.cproject = new CProject(projectId, projectName);
-		this.cproject.revisions = new ArrayList<CRevision>();
-		File dir = new File(MainChangeAnalyzer.outputPath + "/" + projectName);
-		Iterable<RevCommit> commits = null;
-		try {
-			ObjectId head = this.gitConn.getRepository().resolve(Constants.HEAD);
-			commits = this.gitConn.getGit().log().add(head).call();
-		} catch (GitAPIException e) {
-			System.err.println(e.getMessage());
-		} catch (RuntimeException e) {
-			System.err.println(e.getMessage());
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		beginGitAnalysis();
+		Iterable<RevCommit> commits = getGitCommits();
 		if (commits == null)
 			return;
-		this.numOfCodeRevisions = 0;
-		this.numOfRevisions = 0;
-		this.numOfExtractedRevisions = 0;
 //		for (RevCommit commit : commits) {
 //			long time = commit.getCommitTime();
 //			Date date = new Date(time * 1000);
@@ -218,61 +277,99 @@ public class ChangeAnalyzer {
 		for (final RevCommit commit : commits) {
 			if (numOfExtractedRevisions >= Config.MAX_EXTRACTED_COMMITS)
 				break;
-			File file = new File(dir.getAbsolutePath() + "/" + commit.getName() + ".dat");
-			if (file.exists()) {
+			if (isExtracted(commit)) {
 				numOfExtractedRevisions++;
 				continue;
 			}
 			analyzeGit(commit);
 		}
-		this.cproject.numOfAllRevisions = this.numOfRevisions;
+		endGitAnalysis();
 	}
 
 	private void analyzeGit(RevCommit commit) {
+		countRevision(commit);
+		RevisionAnalyzer ra = new RevisionAnalyzer(this, commit);
+		boolean analyzed = ra.analyzeGit();
+		if (analyzed)
+			writeChangeGraphs(commit, buildChangeGraphs(ra));
+	}
+
+	Iterable<RevCommit> getGitCommits() {
+		try {
+			ObjectId head = this.gitConn.getRepository().resolve(Constants.HEAD);
+			return this.gitConn.getGit().log().add(head).call();
+		} catch (GitAPIException e) {
+			System.err.println(e.getMessage());
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	boolean isExtracted(RevCommit commit) {
+		return extractedFiles.contains(commit.getName())
+				|| (segmentWriter != null && segmentWriter.contains(commit.getName()));
+	}
+
+	void countRevision(RevCommit commit) {
 		this.numOfRevisions++;
 		if (this.numOfRevisions % 1000 == 0)
 			System.out.println("Analyzing revision: " + this.numOfRevisions + " " + commit.getName() + " from " + projectName);
-		RevisionAnalyzer ra = new RevisionAnalyzer(this, commit);
-		boolean analyzed = ra.analyzeGit();
-		if (analyzed) {
-			HashMap<String, HashMap<String, ChangeGraph>> changeGraphs = new HashMap<>();
-			for (CMethod e : ra.getMappedMethodsM()) {
-				// System.out.println(e.getCFile().getPath());
-				// System.out.println("Method: " + e.getQualName() + " - " + e.getMappedEntity().getQualName());
-				ChangeGraph cg = e.getChangeGraph(this.gitConn.getRepository(), commit);
-//				ps.println(commit.getName() 
-//						+ ":" + e.getCFile().getPath()
-//						+ ":" + e.getCClass().getName() + "." + e.getSimpleName() + "(" + e.getNumOfParameters()+ ")" + e.getParameterTypes() 
-//						+ ":" + cg.summarize());
-				int[] csizes = cg.getChangeSizes();
-				if (csizes[0] > 0 && csizes[1] > 0 
-						&& (csizes[0] + csizes[1]) >= 3 
-						&& csizes[0] <= 100 && csizes[1] <= 100 
-						&& cg.hasMethods()) {
-					// DEBUG
-					/*DotGraph dg = new DotGraph(cg);
-					String dirPath = "D:/temp";
-					dg.toDotFile(new File(dirPath + "/" + "changegraph.dot"));
-					dg.toGraphics(dirPath + "/" + "changegraph", "png");*/
-					 
-					HashMap<String, ChangeGraph> cgs = changeGraphs.get(e.getCFile().getPath());
-					if (cgs == null) {
-						cgs = new HashMap<>();
-						changeGraphs.put(e.getCFile().getPath(), cgs);
-					}
-					cgs.put(e.getCClass().getName() + "," + e.getSimpleName()
-							+ "," + e.getParameterTypes() + "," + e.startLine, cg);
+	}
+
+	HashMap<String, HashMap<String, ChangeGraph>> buildChangeGraphs(RevisionAnalyzer ra) {
+		HashMap<String, HashMap<String, ChangeGraph>> changeGraphs = new HashMap<>();
+		ParsedFileCache fileCache = new ParsedFileCache(this.gitConn.getRepository(), ra.getGitCommit());
+		for (CMethod e : ra.getMappedMethodsM()) {
+			// System.out.println(e.getCFile().getPath());
+			// System.out.println("Method: " + e.getQualName() + " - " + e.getMappedEntity().getQualName());
+			ChangeGraph cg = e.getChangeGraph(fileCache);
+//			ps.println(commit.getName() 
+//					+ ":" + e.getCFile().getPath()
+//					+ ":" + e.getCClass().getName() + "." + e.getSimpleName() + "(" + e.getNumOfParameters()+ ")" + e.getParameterTypes() 
+//					+ ":" + cg.summarize());
+			int[] csizes = cg.getChangeSizes();
+			if (csizes[0] > 0 && csizes[1] > 0 
+					&& (csizes[0] + csizes[1]) >= 3 
+					&& csizes[0] <= 100 && csizes[1] <= 100 
+					&& cg.hasMethods()) {
+				// DEBUG
+				/*DotGraph dg = new DotGraph(cg);
+				String dirPath = "D:/temp";
+				dg.toDotFile(new File(dirPath + "/" + "changegraph.dot"));
+				dg.toGraphics(dirPath + "/" + "changegraph", "png");*/
+				 
+				HashMap<String, ChangeGraph> cgs = changeGraphs.get(e.getCFile().getPath());
+				if (cgs == null) {
+					cgs = new HashMap<>();
+					changeGraphs.put(e.getCFile().getPath(), cgs);
 				}
-				e.cleanForStats();
+				cgs.put(e.getCClass().getName() + "," + e.getSimpleName()
+						+ "," + e.getParameterTypes() + "," + e.startLine, cg);
 			}
-			if (!changeGraphs.isEmpty()) {
-				File dir = new File(MainChangeAnalyzer.outputPath + "/"
-						+ projectName);
-				if (!dir.exists())
-					dir.mkdirs();
-				FileIO.writeObjectToFile(changeGraphs, dir.getAbsolutePath()
-						+ "/" + commit.getName() + ".dat", false);
-				numOfExtractedRevisions++;
+			e.cleanForStats();
+		}
+		return changeGraphs;
+	}
+
+	void writeChangeGraphs(RevCommit commit, HashMap<String, HashMap<String, ChangeGraph>> changeGraphs) {
+		if (!changeGraphs.isEmpty()) {
+			try {
+				if (segmentWriter != null)
+					segmentWriter.append(commit.getName(), changeGraphs);
+				else {
+					File dir = new File(MainChangeAnalyzer.outputPath + "/" + projectName);
+					if (!dir.exists())
+						dir.mkdirs();
+					ChangeGraphIO.write(changeGraphs, dir.getAbsolutePath() + "/" + commit.getName() + ChangeGraphIO.EXTENSION);
+				}
+				labelIndex.add(projectName, commit.getName(), changeGraphs);
+				LabelIndex.journal(new File(MainChangeAnalyzer.outputPath + "/" + projectName + "/" + LabelIndex.JOURNAL_NAME), projectName, commit.getName(), changeGraphs);
+				incrementNumOfExtractedRevisions();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
 		}
 	}
@@ -18,6 +18,14 @@ public class ChangeEdge implements Serializable {
 		target.inEdges.add(this);
 	}
 
+	ChangeEdge(ChangeNode source, ChangeNode target, String label) {
+		this.source = source;
+		this.target = target;
+		this.label = label;
+		source.outEdges.add(this);
+		target.inEdges.add(this);
+	}
+
 	public ChangeNode getSource() {
 		return source;
 	}
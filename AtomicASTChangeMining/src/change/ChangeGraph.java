@@ -16,6 +16,10 @@ public class ChangeGraph extends pruneDoubleEdges implements Serializable {
 	private static final long serialVersionUID = -874502848659906533L;
 
 	private HashSet<ChangeNode> nodes = new HashSet<>();
+	private int normalization = 0;
+
+	ChangeGraph() {
+	}
 
 	public ChangeGraph(PDGGraph pdg) {
 		HashSet<PDGNode> changedNodes = pdg.getChangedNodes();
@@ -41,6 +45,18 @@ public class ChangeGraph extends pruneDoubleEdges implements Serializable {
 		return nodes;
 	}
 
+	/**
+	 * @return 0 for a graph as extracted, otherwise the version of the
+	 * miner's normalization it went through
+	 */
+	public int getNormalization() {
+		return normalization;
+	}
+
+	public void setNormalization(int normalization) {
+		this.normalization = normalization;
+	}
+
 	public boolean isMultiGraph() {
 		for (ChangeNode node : nodes) {
 			HashSet<ChangeNode> s = new HashSet<>();
@@ -0,0 +1,284 @@
+package change;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import utils.FileIO;
+
+/**
+ * Binary change graph files, one per commit, holding the change graphs of the
+ * commit by file path and method like the serialized maps of the old .dat
+ * files, in a fraction of the space and read without Java serialization.
+ *
+ * All integers are unsigned LEB128 varints; those that may be negative are
+ * zigzag encoded.
+ *
+ * <pre>
+ * "CGRF" version
+ * string count, then per string its UTF-8 byte length and bytes
+ * file count, then per file: path, method count, then per method:
+ *   name, normalization (since version 2), node count, then per node:
+ *     astNodeType, changeType (zigzag), version (zigzag),
+ *     type, label, dataType, dataName as string id + 1, 0 for null,
+ *     position count + 1, 0 for no positions, then per position the start
+ *     as zigzag delta from the previous start and the length (zigzag)
+ *   then per node its in-edge count, and per in-edge: source node, label
+ * </pre>
+ *
+ * Strings, here paths, names and labels, are ids into the string table and
+ * nodes are indices into the node list of their graph. In-edges are kept in
+ * order, so reading them back restores the in-edge lists. The normalization
+ * is 0 for graphs as extracted and otherwise the version of the miner's
+ * normalization the graph went through; version 1 files are all as extracted.
+ *
+ * The same format is read and written by the miner's copy of this class.
+ */
+public class ChangeGraphIO {
+	public static final String EXTENSION = ".cg";
+	public static final String LEGACY_EXTENSION = ".dat";
+	public static final int VERSION = 2;
+	private static final byte[] MAGIC = {'C', 'G', 'R', 'F'};
+
+	/**
+	 * @return true for binary and for serialized change graph files
+	 */
+	public static boolean isChangeGraphFile(String name) {
+		return name.endsWith(EXTENSION) || name.endsWith(LEGACY_EXTENSION);
+	}
+
+	/**
+	 * Reads a binary change graph file, or a serialized one if the file has
+	 * the legacy extension.
+	 *
+	 * @return null if the file cannot be read
+	 */
+	@SuppressWarnings("unchecked")
+	public static HashMap<String, HashMap<String, ChangeGraph>> read(File file) {
+		if (file.getName().endsWith(LEGACY_EXTENSION))
+			return (HashMap<String, HashMap<String, ChangeGraph>>) FileIO.readObjectFromFile(file.getAbsolutePath());
+		try {
+			return fromBytes(Files.readAllBytes(file.toPath()));
+		} catch (IOException | RuntimeException e) {
+			System.err.println(file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	public static void write(HashMap<String, HashMap<String, ChangeGraph>> changeGraphs, String path) {
+		try (FileOutputStream out = new FileOutputStream(path)) {
+			out.write(toBytes(changeGraphs));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static byte[] toBytes(HashMap<String, HashMap<String, ChangeGraph>> changeGraphs) {
+		Output body = new Output();
+		body.writeVarint(changeGraphs.size());
+		for (String path : changeGraphs.keySet()) {
+			HashMap<String, ChangeGraph> cgs = changeGraphs.get(path);
+			body.writeVarint(body.id(path));
+			body.writeVarint(cgs.size());
+			for (String method : cgs.keySet()) {
+				body.writeVarint(body.id(method));
+				body.writeVarint(cgs.get(method).getNormalization());
+				write(cgs.get(method), body);
+			}
+		}
+		Output out = new Output();
+		out.write(MAGIC, 0, MAGIC.length);
+		out.writeVarint(VERSION);
+		out.writeVarint(body.strings.size());
+		for (String s : body.strings) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeVarint(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+		out.append(body);
+		return out.toByteArray();
+	}
+
+	private static void write(ChangeGraph cg, Output out) {
+		HashMap<ChangeNode, Integer> ids = new HashMap<>();
+		out.writeVarint(cg.getNodes().size());
+		for (ChangeNode node : cg.getNodes()) {
+			ids.put(node, ids.size());
+			out.writeVarint(node.astNodeType);
+			out.writeZigzag(node.changeType);
+			out.writeZigzag(node.version);
+			out.writeVarint(out.id(node.type) + 1);
+			out.writeVarint(out.id(node.label) + 1);
+			out.writeVarint(out.id(node.dataType) + 1);
+			out.writeVarint(out.id(node.dataName) + 1);
+			if (node.starts == null || node.lengths == null)
+				out.writeVarint(0);
+			else {
+				out.writeVarint(node.starts.length + 1);
+				int previous = 0;
+				for (int i = 0; i < node.starts.length; i++) {
+					out.writeZigzag(node.starts[i] - previous);
+					out.writeZigzag(node.lengths[i]);
+					previous = node.starts[i];
+				}
+			}
+		}
+		for (ChangeNode node : cg.getNodes()) {
+			out.writeVarint(node.inEdges.size());
+			for (ChangeEdge e : node.inEdges) {
+				out.writeVarint(ids.get(e.source));
+				out.writeVarint(out.id(e.label));
+			}
+		}
+	}
+
+	public static HashMap<String, HashMap<String, ChangeGraph>> fromBytes(byte[] bytes) {
+		Input in = new Input(bytes);
+		for (int i = 0; i < MAGIC.length; i++)
+			if (in.readByte() != MAGIC[i])
+				throw new IllegalArgumentException("Not a change graph file");
+		int version = in.readVarint();
+		if (version < 1 || version > VERSION)
+			throw new IllegalArgumentException("Unsupported change graph format version " + version);
+		String[] strings = new String[in.readVarint()];
+		for (int i = 0; i < strings.length; i++)
+			strings[i] = in.readString();
+		int numOfFiles = in.readVarint();
+		HashMap<String, HashMap<String, ChangeGraph>> changeGraphs = new HashMap<>();
+		for (int i = 0; i < numOfFiles; i++) {
+			String path = strings[in.readVarint()];
+			int numOfMethods = in.readVarint();
+			HashMap<String, ChangeGraph> cgs = new HashMap<>();
+			for (int j = 0; j < numOfMethods; j++) {
+				String method = strings[in.readVarint()];
+				int normalization = version > 1 ? in.readVarint() : 0;
+				ChangeGraph cg = read(in, strings);
+				cg.setNormalization(normalization);
+				cgs.put(method, cg);
+			}
+			changeGraphs.put(path, cgs);
+		}
+		return changeGraphs;
+	}
+
+	private static ChangeGraph read(Input in, String[] strings) {
+		ChangeGraph cg = new ChangeGraph();
+		ChangeNode[] nodes = new ChangeNode[in.readVarint()];
+		for (int i = 0; i < nodes.length; i++) {
+			ChangeNode node = new ChangeNode();
+			node.astNodeType = in.readVarint();
+			node.changeType = in.readZigzag();
+			node.version = in.readZigzag();
+			node.type = in.readString(strings);
+			node.label = in.readString(strings);
+			node.dataType = in.readString(strings);
+			node.dataName = in.readString(strings);
+			int numOfPositions = in.readVarint() - 1;
+			if (numOfPositions >= 0) {
+				node.starts = new int[numOfPositions];
+				node.lengths = new int[numOfPositions];
+				int previous = 0;
+				for (int k = 0; k < numOfPositions; k++) {
+					node.starts[k] = previous + in.readZigzag();
+					node.lengths[k] = in.readZigzag();
+					previous = node.starts[k];
+				}
+			}
+			nodes[i] = node;
+			cg.getNodes().add(node);
+		}
+		for (ChangeNode target : nodes) {
+			int numOfInEdges = in.readVarint();
+			for (int i = 0; i < numOfInEdges; i++) {
+				ChangeNode source = nodes[in.readVarint()];
+				new ChangeEdge(source, target, strings[in.readVarint()]);
+			}
+		}
+		return cg;
+	}
+
+	private static class Output extends ByteArrayOutputStream {
+		private HashMap<String, Integer> ids = new HashMap<>();
+		private ArrayList<String> strings = new ArrayList<>();
+
+		private Output() {
+			super(4096);
+		}
+
+		/**
+		 * @return the string table id of the string, -1 for null
+		 */
+		private int id(String s) {
+			if (s == null)
+				return -1;
+			Integer id = ids.get(s);
+			if (id == null) {
+				id = strings.size();
+				ids.put(s, id);
+				strings.add(s);
+			}
+			return id;
+		}
+
+		private void append(Output other) {
+			write(other.buf, 0, other.count);
+		}
+
+		private void writeVarint(int v) {
+			while ((v & ~0x7F) != 0) {
+				write((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			write(v);
+		}
+
+		private void writeZigzag(int v) {
+			writeVarint((v << 1) ^ (v >> 31));
+		}
+	}
+
+	private static class Input {
+		private byte[] buf;
+		private int pos = 0;
+
+		private Input(byte[] buf) {
+			this.buf = buf;
+		}
+
+		private byte readByte() {
+			return buf[pos++];
+		}
+
+		private int readVarint() {
+			int v = 0;
+			for (int shift = 0; ; shift += 7) {
+				byte b = buf[pos++];
+				v |= (b & 0x7F) << shift;
+				if (b >= 0)
+					return v;
+			}
+		}
+
+		private int readZigzag() {
+			int v = readVarint();
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		private String readString() {
+			int length = readVarint();
+			String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			return s;
+		}
+
+		private String readString(String[] strings) {
+			int id = readVarint();
+			return id == 0 ? null : strings[id - 1];
+		}
+	}
+}
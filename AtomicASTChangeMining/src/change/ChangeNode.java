@@ -22,6 +22,9 @@ public class ChangeNode implements Serializable {
 	String dataType, dataName;
 	ArrayList<ChangeEdge> inEdges = new ArrayList<>(), outEdges = new ArrayList<>();
 
+	ChangeNode() {
+	}
+
 	public ChangeNode(PDGNode node) {
 		this.astNodeType = node.getAstNodeType();
 		this.version = node.version;
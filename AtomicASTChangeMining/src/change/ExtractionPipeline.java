@@ -0,0 +1,324 @@
+package change;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.revwalk.RevCommit;
+
+import utils.Config;
+import utils.NotifyingBlockingThreadPoolExecutor;
+
+/**
+ * Runs git extraction as a chain of stages, each with its own thread pool and
+ * bounded queue:
+ *
+ * commit enumeration -> blob fetch -> transform -> entity mapping -> change graph build -> write
+ *
+ * A commit moves from one stage to the next as a single work item. Handing it
+ * to a stage whose queue is full blocks the upstream worker, so memory stays
+ * bounded by the queue sizes no matter how unbalanced the stages are.
+ */
+public class ExtractionPipeline {
+	public static final String[] STAGE_NAMES = {"enumerate", "fetch", "transform", "map", "build", "write"};
+	public static final int ENUMERATE = 0, FETCH = 1, TRANSFORM = 2, MAP = 3, BUILD = 4, WRITE = 5;
+
+	private Stage[] stages = new Stage[STAGE_NAMES.length];
+	private int numOfRunningProjects = 0;
+	private long startTime = System.nanoTime();
+	private ScheduledExecutorService reporter;
+
+	/**
+	 * @param poolSizes number of threads of each stage, in the order of {@link #STAGE_NAMES}
+	 * @param queueSize capacity of the queue in front of each stage
+	 */
+	public ExtractionPipeline(int[] poolSizes, int queueSize) {
+		if (poolSizes.length != STAGE_NAMES.length)
+			throw new IllegalArgumentException("Expected " + STAGE_NAMES.length + " pool sizes but got " + poolSizes.length);
+		for (int i = 0; i < stages.length; i++)
+			stages[i] = new Stage(STAGE_NAMES[i], poolSizes[i], queueSize);
+	}
+
+	public Stage[] getStages() {
+		return stages;
+	}
+
+	public Stage getStage(int index) {
+		return stages[index];
+	}
+
+	/**
+	 * Queues a git project for extraction. Blocks while the enumeration queue is full.
+	 */
+	public void submit(final String projectName, final String url) {
+		final ProjectRun project = new ProjectRun(new ChangeAnalyzer(projectName, -1, url));
+		synchronized (this) {
+			numOfRunningProjects++;
+		}
+		execute(stages[ENUMERATE], project, new Callable<Runnable>() {
+			@Override
+			public Runnable call() throws Exception {
+				enumerate(project);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Waits until every submitted project has gone through all stages.
+	 */
+	public synchronized void await() throws InterruptedException {
+		while (numOfRunningProjects > 0)
+			wait();
+	}
+
+	public void shutdown() {
+		stopReporting();
+		for (Stage stage : stages)
+			stage.executor.shutdown();
+	}
+
+	/**
+	 * Prints the stage statistics every given number of seconds until {@link #shutdown()}.
+	 */
+	public void startReporting(final PrintStream ps, long seconds) {
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "pipeline-stats");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				printStats(ps);
+			}
+		}, seconds, seconds, TimeUnit.SECONDS);
+	}
+
+	private void stopReporting() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+	}
+
+	public void printStats(PrintStream ps) {
+		double elapsed = (System.nanoTime() - startTime) / 1e9;
+		StringBuilder sb = new StringBuilder();
+		sb.append("Pipeline after " + Math.round(elapsed) + "s\n");
+		for (Stage stage : stages) {
+			sb.append(String.format("\t%-9s threads=%d active=%d queue=%d/%d done=%d failed=%d rate=%.2f/s busy=%.0f%%%n",
+					stage.name, stage.getPoolSize(), stage.getActiveCount(),
+					stage.getQueueDepth(), stage.getQueueCapacity(),
+					stage.getProcessed(), stage.getFailed(),
+					stage.getThroughput(elapsed), 100 * stage.getUtilization(elapsed)));
+		}
+		ps.print(sb.toString());
+	}
+
+	private void enumerate(ProjectRun project) {
+		ChangeAnalyzer ca = project.changeAnalyzer;
+		System.out.println(ca.getProjectName());
+		ca.buildGitConnector();
+		ca.beginGitAnalysis();
+		Iterable<RevCommit> commits = ca.getGitCommits();
+		if (commits == null)
+			return;
+		for (RevCommit commit : commits) {
+			// written commits lag behind enumeration, so the limit is only approximate here
+			if (ca.getNumOfExtractedRevisions() >= Config.MAX_EXTRACTED_COMMITS)
+				break;
+			if (ca.isExtracted(commit)) {
+				ca.incrementNumOfExtractedRevisions();
+				continue;
+			}
+			ca.countRevision(commit);
+			final RevisionAnalyzer ra = new RevisionAnalyzer(ca, commit);
+			project.retain();
+			forward(FETCH, project, ra);
+		}
+	}
+
+	private void forward(final int stage, final ProjectRun project, final RevisionAnalyzer ra) {
+		execute(stages[stage], project, new Callable<Runnable>() {
+			@Override
+			public Runnable call() throws Exception {
+				switch (stage) {
+				case FETCH:
+					if (ra.fetchGitFiles())
+						return next(TRANSFORM, project, ra);
+					return null;
+				case TRANSFORM:
+					ra.transformGitFiles();
+					if (Config.countChangeFileOnly)
+						return null;
+					return next(MAP, project, ra);
+				case MAP:
+					if (ra.mapGitFiles() && !ra.getMappedMethodsM().isEmpty())
+						return next(BUILD, project, ra);
+					return null;
+				case BUILD:
+					final HashMap<String, HashMap<String, ChangeGraph>> changeGraphs = project.changeAnalyzer.buildChangeGraphs(ra);
+					if (changeGraphs.isEmpty())
+						return null;
+					return new Runnable() {
+						@Override
+						public void run() {
+							execute(stages[WRITE], project, new Callable<Runnable>() {
+								@Override
+								public Runnable call() throws Exception {
+									project.changeAnalyzer.writeChangeGraphs(ra.getGitCommit(), changeGraphs);
+									return null;
+								}
+							});
+						}
+					};
+				default:
+					return null;
+				}
+			}
+		});
+	}
+
+	private Runnable next(final int stage, final ProjectRun project, final RevisionAnalyzer ra) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				forward(stage, project, ra);
+			}
+		};
+	}
+
+	/**
+	 * Runs the work on the stage's pool. The work returns the hand-off to the
+	 * next stage, or null when the item stops here. The hand-off runs after
+	 * the stage timer is stopped, so time spent blocked on a full downstream
+	 * queue is not counted as busy time of this stage.
+	 */
+	private void execute(final Stage stage, final ProjectRun project, final Callable<Runnable> work) {
+		stage.executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				long start = System.nanoTime();
+				Runnable next = null;
+				try {
+					next = work.call();
+				} catch (Throwable e) {
+					stage.failed.incrementAndGet();
+					e.printStackTrace();
+				}
+				stage.busyTime.addAndGet(System.nanoTime() - start);
+				stage.processed.incrementAndGet();
+				if (next != null)
+					next.run();
+				else
+					project.release();
+			}
+		});
+	}
+
+	private synchronized void projectDone() {
+		numOfRunningProjects--;
+		if (numOfRunningProjects == 0)
+			notifyAll();
+	}
+
+	private class ProjectRun {
+		private ChangeAnalyzer changeAnalyzer;
+		private long startTime = System.currentTimeMillis();
+		// one hold for the enumeration plus one per commit still in flight
+		private AtomicInteger holds = new AtomicInteger(1);
+
+		private ProjectRun(ChangeAnalyzer changeAnalyzer) {
+			this.changeAnalyzer = changeAnalyzer;
+		}
+
+		private void retain() {
+			holds.incrementAndGet();
+		}
+
+		private void release() {
+			if (holds.decrementAndGet() > 0)
+				return;
+			long endTime = System.currentTimeMillis();
+			try {
+				changeAnalyzer.endGitAnalysis();
+				changeAnalyzer.getCproject().setRunningTime(endTime - startTime);
+				changeAnalyzer.closeGitConnector();
+			} catch (RuntimeException e) {
+				System.err.println(e.getMessage());
+			}
+			System.out.println("Done " + changeAnalyzer.getProjectName() + " in " + (endTime - startTime) / 1000 + "s");
+			projectDone();
+		}
+	}
+
+	public static class Stage {
+		private String name;
+		private NotifyingBlockingThreadPoolExecutor executor;
+		private int queueCapacity;
+		private AtomicLong processed = new AtomicLong(), failed = new AtomicLong(), busyTime = new AtomicLong();
+
+		private Stage(String name, int poolSize, int queueSize) {
+			this.name = name;
+			this.executor = new NotifyingBlockingThreadPoolExecutor(poolSize, queueSize, 15, TimeUnit.SECONDS);
+			this.queueCapacity = Math.max(poolSize, queueSize);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getPoolSize() {
+			return executor.getCorePoolSize();
+		}
+
+		public int getActiveCount() {
+			return executor.getActiveCount();
+		}
+
+		public int getQueueDepth() {
+			return executor.getQueue().size();
+		}
+
+		public int getQueueCapacity() {
+			return queueCapacity;
+		}
+
+		public long getProcessed() {
+			return processed.get();
+		}
+
+		public long getFailed() {
+			return failed.get();
+		}
+
+		/**
+		 * @return items completed per second of wall clock time
+		 */
+		public double getThroughput(double elapsedSeconds) {
+			if (elapsedSeconds <= 0)
+				return 0;
+			return processed.get() / elapsedSeconds;
+		}
+
+		/**
+		 * @return fraction of the stage's thread time spent working; a stage
+		 * near 1 with a full queue in front of it is the one to give more threads
+		 */
+		public double getUtilization(double elapsedSeconds) {
+			if (elapsedSeconds <= 0)
+				return 0;
+			return busyTime.get() / 1e9 / (elapsedSeconds * getPoolSize());
+		}
+	}
+}
@@ -0,0 +1,477 @@
+package change;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Inverted index from the labels of mapped node pairs to the change graphs
+ * and nodes they occur in, so mining can count the support of its seed pairs
+ * without loading the graphs.
+ *
+ * A pair is an old version node and a node it is mapped to. Both sides are
+ * kept as the raw AST node type, node type and label of the change nodes;
+ * the miner turns them into its own node labels. A node mapped to several
+ * nodes is listed under each pair. Graphs of at most two nodes are left out
+ * as the miner skips them.
+ *
+ * Postings are (graph, node) ids. A graph is a method of a commit of a
+ * project; a node id tells apart the indexed nodes of one graph.
+ *
+ * The extractor writes one index per repository and the miner merges them
+ * into a corpus index. While extracting, the index of each commit appended
+ * to a segment is also appended to a journal next to the index file, which
+ * reading the index replays, so a run cut off before saving the index loses
+ * at most the commit being appended; the next run indexes that one again
+ * from its segment. Commits that are in neither, like legacy per-commit
+ * files, are not covered by it.
+ */
+public class LabelIndex {
+	public static final String FILE_NAME = "labels.cgi", JOURNAL_NAME = FILE_NAME + ".log";
+	private static final int MAGIC = 0x43474c49, VERSION = 2;
+
+	private ArrayList<String> projects = new ArrayList<>();
+	private HashMap<String, Integer> projectIds = new HashMap<>();
+	private ArrayList<Integer> commitProjects = new ArrayList<>();
+	private ArrayList<String> commits = new ArrayList<>();
+	private HashMap<String, Integer> commitIds = new HashMap<>();
+	private ArrayList<Integer> graphCommits = new ArrayList<>();
+	private ArrayList<String> graphMethods = new ArrayList<>();
+	private ArrayList<Integer> astNodeTypes = new ArrayList<>();
+	private ArrayList<String> types = new ArrayList<>(), labels = new ArrayList<>();
+	private HashMap<List<Object>, Integer> signatureIds = new HashMap<>();
+	private LinkedHashMap<Long, Postings> postings = new LinkedHashMap<>();
+
+	/**
+	 * Adds the change graphs of a commit, unless the commit is already in the
+	 * index.
+	 */
+	public synchronized void add(String project, String commit, HashMap<String, HashMap<String, ChangeGraph>> changeGraphs) {
+		if (getCommitId(project, commit) >= 0)
+			return;
+		int commitId = commitId(projectId(project), commit);
+		for (String fp : changeGraphs.keySet()) {
+			HashMap<String, ChangeGraph> cgs = changeGraphs.get(fp);
+			for (String method : cgs.keySet()) {
+				ChangeGraph cg = cgs.get(method);
+				if (cg.getNodes().size() <= 2)
+					continue;
+				int graphId = -1, nodeId = 0;
+				for (ChangeNode node : cg.getNodes()) {
+					if (node.getVersion() != 0)
+						continue;
+					HashSet<Long> keys = new HashSet<>();
+					for (ChangeEdge e : node.getOutEdges())
+						if (e.getLabel().equals("_map_"))
+							keys.add(key(signatureId(node), signatureId(e.getTarget())));
+					for (ChangeEdge e : node.getInEdges())
+						if (e.getLabel().equals("_map_"))
+							keys.add(key(signatureId(node), signatureId(e.getSource())));
+					if (keys.isEmpty())
+						continue;
+					if (graphId < 0) {
+						graphId = graphCommits.size();
+						graphCommits.add(commitId);
+						graphMethods.add(fp + "," + method);
+					}
+					for (long key : keys)
+						getPostings(key).add(graphId, nodeId);
+					nodeId++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds all graphs of another index. Commits already in this index are
+	 * skipped.
+	 *
+	 * @param project the project the graphs of a single repository index are
+	 * put under, or null to keep the project names of the other index
+	 */
+	public synchronized void merge(LabelIndex other, String project) {
+		int[] commitMap = new int[other.commits.size()];
+		for (int c = 0; c < commitMap.length; c++) {
+			String p = project != null ? project : other.projects.get(other.commitProjects.get(c));
+			commitMap[c] = getCommitId(p, other.commits.get(c)) >= 0 ? -1 : commitId(projectId(p), other.commits.get(c));
+		}
+		int[] graphMap = new int[other.graphCommits.size()];
+		for (int g = 0; g < graphMap.length; g++) {
+			int commitId = commitMap[other.graphCommits.get(g)];
+			if (commitId < 0) {
+				graphMap[g] = -1;
+				continue;
+			}
+			graphMap[g] = graphCommits.size();
+			graphCommits.add(commitId);
+			graphMethods.add(other.graphMethods.get(g));
+		}
+		int[] signatureMap = new int[other.labels.size()];
+		for (int s = 0; s < signatureMap.length; s++)
+			signatureMap[s] = signatureId(other.astNodeTypes.get(s), other.types.get(s), other.labels.get(s));
+		for (Postings p : other.postings.values()) {
+			Postings mine = getPostings(key(signatureMap[p.left], signatureMap[p.right]));
+			for (int i = 0; i < p.size; i++)
+				if (graphMap[p.graphs[i]] >= 0)
+					mine.add(graphMap[p.graphs[i]], p.nodes[i]);
+		}
+	}
+
+	public int getCommitId(String project, String commit) {
+		Integer projectId = projectIds.get(project);
+		if (projectId == null)
+			return -1;
+		Integer id = commitIds.get(projectId + ":" + commit);
+		return id == null ? -1 : id;
+	}
+
+	public int getNumOfCommits() {
+		return commits.size();
+	}
+
+	public int getNumOfGraphs() {
+		return graphCommits.size();
+	}
+
+	public String getProject(int graph) {
+		return projects.get(commitProjects.get(graphCommits.get(graph)));
+	}
+
+	public String getCommit(int graph) {
+		return commits.get(graphCommits.get(graph));
+	}
+
+	/**
+	 * @return the file path and the method key of the graph, separated by a
+	 * comma as in the names of the graphs the miner reads
+	 */
+	public String getMethod(int graph) {
+		return graphMethods.get(graph);
+	}
+
+	public int getAstNodeType(int signature) {
+		return astNodeTypes.get(signature);
+	}
+
+	public String getType(int signature) {
+		return types.get(signature);
+	}
+
+	public String getLabel(int signature) {
+		return labels.get(signature);
+	}
+
+	public Collection<Postings> getPostings() {
+		return postings.values();
+	}
+
+	private int projectId(String project) {
+		Integer id = projectIds.get(project);
+		if (id == null) {
+			id = projects.size();
+			projects.add(project);
+			projectIds.put(project, id);
+		}
+		return id;
+	}
+
+	private int commitId(int projectId, String commit) {
+		int id = commits.size();
+		commitProjects.add(projectId);
+		commits.add(commit);
+		commitIds.put(projectId + ":" + commit, id);
+		return id;
+	}
+
+	private int signatureId(ChangeNode node) {
+		return signatureId(node.astNodeType, node.type, node.label);
+	}
+
+	private int signatureId(int astNodeType, String type, String label) {
+		List<Object> s = Arrays.<Object>asList(astNodeType, type, label);
+		Integer id = signatureIds.get(s);
+		if (id == null) {
+			id = labels.size();
+			astNodeTypes.add(astNodeType);
+			types.add(type);
+			labels.add(label);
+			signatureIds.put(s, id);
+		}
+		return id;
+	}
+
+	private static long key(int left, int right) {
+		return ((long) left << 32) | (right & 0xFFFFFFFFL);
+	}
+
+	private Postings getPostings(long key) {
+		Postings p = postings.get(key);
+		if (p == null) {
+			p = new Postings((int) (key >>> 32), (int) key);
+			postings.put(key, p);
+		}
+		return p;
+	}
+
+	public synchronized void write(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			write(out);
+		}
+		// replace the old index only once the new one is complete
+		if (file.exists() && !file.delete())
+			throw new IOException("Cannot replace " + file);
+		if (!tmp.renameTo(file))
+			throw new IOException("Cannot rename " + tmp + " to " + file);
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(projects.size());
+		for (String project : projects)
+			writeString(out, project);
+		out.writeInt(commits.size());
+		for (int i = 0; i < commits.size(); i++) {
+			out.writeInt(commitProjects.get(i));
+			writeString(out, commits.get(i));
+		}
+		out.writeInt(graphCommits.size());
+		for (int i = 0; i < graphCommits.size(); i++) {
+			out.writeInt(graphCommits.get(i));
+			writeString(out, graphMethods.get(i));
+		}
+		out.writeInt(labels.size());
+		for (int i = 0; i < labels.size(); i++) {
+			out.writeInt(astNodeTypes.get(i));
+			writeString(out, types.get(i));
+			writeString(out, labels.get(i));
+		}
+		out.writeInt(postings.size());
+		for (Postings p : postings.values()) {
+			out.writeInt(p.left);
+			out.writeInt(p.right);
+			out.writeInt(p.size);
+			for (int i = 0; i < p.size; i++) {
+				out.writeInt(p.graphs[i]);
+				out.writeInt(p.nodes[i]);
+			}
+		}
+	}
+
+	/**
+	 * Appends the index of the change graphs of one commit to a journal, as
+	 * a record of its length, CRC32 and bytes.
+	 */
+	public static synchronized void journal(File journal, String project, String commit, HashMap<String, HashMap<String, ChangeGraph>> changeGraphs) throws IOException {
+		LabelIndex index = new LabelIndex();
+		index.add(project, commit, changeGraphs);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			index.write(out);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal, true)))) {
+			out.writeInt(bytes.size());
+			out.writeInt((int) crc.getValue());
+			bytes.writeTo(out);
+		}
+	}
+
+	/**
+	 * Merges the commits of a journal, up to the first record that is cut
+	 * off or fails its checksum.
+	 */
+	private void replay(File journal, String project) throws IOException {
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+			while (true) {
+				byte[] bytes;
+				long checksum;
+				try {
+					int length = in.readInt();
+					checksum = in.readInt() & 0xFFFFFFFFL;
+					if (length < 0)
+						return;
+					bytes = new byte[length];
+					in.readFully(bytes);
+				} catch (EOFException e) {
+					return;
+				}
+				crc.reset();
+				crc.update(bytes);
+				if (crc.getValue() != checksum)
+					return;
+				merge(read(new DataInputStream(new ByteArrayInputStream(bytes)), null), project);
+			}
+		}
+	}
+
+	/**
+	 * Writes the UTF-8 bytes after their number plus one as a varint, 0 for
+	 * null, so labels of long literals fit unlike with writeUTF.
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.write(0);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		int v = bytes.length + 1;
+		while ((v & ~0x7F) != 0) {
+			out.write((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int v = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = in.readByte();
+			v |= (b & 0x7F) << shift;
+			if (b >= 0)
+				break;
+		}
+		if (v == 0)
+			return null;
+		byte[] bytes = new byte[v - 1];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param project the project to put the graphs of a single repository
+	 * index under, or null to keep the name it was written with
+	 * @return null if the file does not exist or cannot be read
+	 */
+	public static LabelIndex read(File file, String project) {
+		File journal = new File(file.getPath() + ".log");
+		if (!file.exists() && !journal.exists())
+			return null;
+		LabelIndex index = new LabelIndex();
+		try {
+			if (file.exists()) {
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+					index = read(in, project);
+				}
+			}
+			if (journal.exists())
+				index.replay(journal, project);
+		} catch (IOException e) {
+			System.err.println(file + ": " + e.getMessage());
+			return null;
+		}
+		return index;
+	}
+
+	private static LabelIndex read(DataInputStream in, String project) throws IOException {
+		LabelIndex index = new LabelIndex();
+		if (in.readInt() != MAGIC)
+			throw new IOException("not a label index");
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("unsupported label index version " + version);
+		int numOfProjects = in.readInt();
+		for (int i = 0; i < numOfProjects; i++)
+			index.projectId(readString(in));
+		if (project != null && numOfProjects == 1) {
+			index.projects.set(0, project);
+			index.projectIds.clear();
+			index.projectIds.put(project, 0);
+		}
+		int numOfCommits = in.readInt();
+		for (int i = 0; i < numOfCommits; i++) {
+			int projectId = in.readInt();
+			index.commitId(projectId, readString(in));
+		}
+		int numOfGraphs = in.readInt();
+		for (int i = 0; i < numOfGraphs; i++) {
+			index.graphCommits.add(in.readInt());
+			index.graphMethods.add(readString(in));
+		}
+		int numOfSignatures = in.readInt();
+		for (int i = 0; i < numOfSignatures; i++) {
+			int astNodeType = in.readInt();
+			String type = readString(in);
+			index.signatureId(astNodeType, type, readString(in));
+		}
+		int numOfPostings = in.readInt();
+		for (int i = 0; i < numOfPostings; i++) {
+			Postings p = index.getPostings(key(in.readInt(), in.readInt()));
+			int size = in.readInt();
+			for (int j = 0; j < size; j++)
+				p.add(in.readInt(), in.readInt());
+		}
+		return index;
+	}
+
+	/**
+	 * The (graph, node) ids of the occurrences of one pair of signatures.
+	 */
+	public static class Postings {
+		private int left, right;
+		private int[] graphs = new int[4], nodes = new int[4];
+		private int size = 0;
+
+		private Postings(int left, int right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		private void add(int graph, int node) {
+			if (size == graphs.length) {
+				graphs = Arrays.copyOf(graphs, size * 2);
+				nodes = Arrays.copyOf(nodes, size * 2);
+			}
+			graphs[size] = graph;
+			nodes[size] = node;
+			size++;
+		}
+
+		/**
+		 * @return the signature of the old version node
+		 */
+		public int getLeft() {
+			return left;
+		}
+
+		/**
+		 * @return the signature of the node it is mapped to
+		 */
+		public int getRight() {
+			return right;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int getGraph(int i) {
+			return graphs[i];
+		}
+
+		public int getNode(int i) {
+			return nodes[i];
+		}
+	}
+}
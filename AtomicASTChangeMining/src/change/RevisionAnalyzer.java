@@ -51,6 +51,7 @@ public class RevisionAnalyzer {
             initsN = new HashSet<CInitializer>();
     private HashSet<CInitializer> mappedInitsM = new HashSet<CInitializer>(),
             mappedInitsN = new HashSet<CInitializer>();
+    private ArrayList<String[]> gitFileContents;
     CRevision crevision;
 
     public RevisionAnalyzer(ChangeAnalyzer changeAnalyzer, long revision) {
@@ -129,10 +130,47 @@ public class RevisionAnalyzer {
     }
 
     public boolean analyzeGit() {
-        if (!buildGitModifiedFiles())
+        if (!fetchGitFiles())
             return false;
+        transformGitFiles();
         if (Config.countChangeFileOnly)
             return true;
+        return mapGitFiles();
+    }
+
+    public RevCommit getGitCommit() {
+        return gitCommit;
+    }
+
+    /*
+     * The three steps below are what analyzeGit() does in one go. They are
+     * exposed separately so that ExtractionPipeline can run blob loading,
+     * srcML transformation and entity mapping on different thread pools.
+     */
+
+    public boolean fetchGitFiles() {
+        return buildGitModifiedFiles();
+    }
+
+    public void transformGitFiles() {
+        if (this.gitFileContents == null)
+            return;
+        for (String[] contents : this.gitFileContents) {
+            CFile fileM = new CFile(this, contents[0], contents[2]);
+            CFile fileN = new CFile(this, contents[1], contents[3]);
+            this.mappedFilesM.add(fileM);
+//			this.crevision.files.add(new CSourceFile(contents[1], fileM
+//					.getSourceFile().getLines().size()));
+            this.mappedFilesN.add(fileN);
+            fileM.setCType(Type.Modified);
+            fileN.setCType(Type.Modified);
+            fileM.setMappedFile(fileN);
+            fileN.setMappedFile(fileM);
+        }
+        this.gitFileContents = null;
+    }
+
+    public boolean mapGitFiles() {
         if (!map())
             return false;
         deriveChanges();
@@ -280,6 +318,7 @@ public class RevisionAnalyzer {
             }
             if (!diffs.isEmpty()) {
                 this.changeAnalyzer.incrementNumOfCodeRevisions();
+                this.gitFileContents = new ArrayList<String[]>();
                 for (DiffEntry diff : diffs) {
                     if (diff.getChangeType() == ChangeType.MODIFY
                             && diff.getOldMode().getObjectType() == Constants.OBJ_BLOB
@@ -304,19 +343,8 @@ public class RevisionAnalyzer {
                             System.err.println(e.getMessage());
                             continue;
                         }
-                        CFile fileM = new CFile(this, diff.getOldPath(),
-                                oldContent);
-                        CFile fileN = new CFile(this, diff.getNewPath(),
-                                newContent);
-                        this.mappedFilesM.add(fileM);
-//						this.crevision.files.add(new CSourceFile(diff
-//								.getNewPath(), fileM.getSourceFile().getLines()
-//								.size()));
-                        this.mappedFilesN.add(fileN);
-                        fileM.setCType(Type.Modified);
-                        fileN.setCType(Type.Modified);
-                        fileM.setMappedFile(fileN);
-                        fileN.setMappedFile(fileM);
+                        this.gitFileContents.add(new String[]{diff.getOldPath(),
+                                diff.getNewPath(), oldContent, newContent});
                     }
                 }
             }
@@ -0,0 +1,188 @@
+package change;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Appends the change graphs of the commits of one repository to rolling
+ * segment files in the format read by {@link SegmentReader}. A segment is
+ * sealed with its index once it grows past the size limit, and a new one is
+ * started.
+ *
+ * Opening a directory picks up where an earlier run stopped: the commits of
+ * all existing segments count as written, a tail left by a crash is cut off
+ * and the last segment is reopened for appending.
+ */
+public class SegmentWriter implements Closeable {
+	private static final String PREFIX = "segment-";
+
+	private File dir;
+	private long sizeLimit;
+	private HashSet<String> commits = new HashSet<>();
+	private int nextSegment = 0;
+	private RandomAccessFile current;
+	private ArrayList<String> names = new ArrayList<>();
+	private ArrayList<Long> offsets = new ArrayList<>();
+	// of the index and trailer the current segment gets when sealed
+	private long indexLength = SegmentReader.TRAILER_SIZE;
+	private Deflater deflater = new Deflater();
+	private CRC32 crc = new CRC32();
+
+	public SegmentWriter(File dir, long sizeLimit) throws IOException {
+		this.dir = dir;
+		this.sizeLimit = sizeLimit;
+		File[] segments = SegmentReader.listSegments(dir);
+		for (int i = 0; i < segments.length; i++) {
+			File segment = segments[i];
+			boolean sealed;
+			int validLength;
+			ArrayList<String> segmentCommits = new ArrayList<>();
+			ArrayList<Long> segmentOffsets = new ArrayList<>();
+			try (SegmentReader reader = new SegmentReader(segment)) {
+				sealed = reader.isSealed();
+				validLength = reader.getValidLength();
+				for (String commit : reader.getCommits()) {
+					segmentCommits.add(commit);
+					segmentOffsets.add((long) reader.getOffset(commit));
+				}
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+				continue;
+			}
+			commits.addAll(segmentCommits);
+			nextSegment = Math.max(nextSegment, getNumber(segment) + 1);
+			boolean last = i == segments.length - 1;
+			if (sealed && !(last && validLength < sizeLimit))
+				continue;
+			// reopen without the index or the broken tail, keeping the index in memory
+			current = new RandomAccessFile(segment, "rw");
+			current.setLength(validLength);
+			names = segmentCommits;
+			offsets = segmentOffsets;
+			indexLength = SegmentReader.TRAILER_SIZE;
+			for (String commit : names)
+				indexLength += 2 + commit.getBytes(StandardCharsets.UTF_8).length + 8;
+			if (!last)
+				seal();
+		}
+	}
+
+	/**
+	 * @return true if the commit is in one of the segments
+	 */
+	public synchronized boolean contains(String commit) {
+		return commits.contains(commit);
+	}
+
+	public synchronized void append(String commit, HashMap<String, HashMap<String, ChangeGraph>> changeGraphs) throws IOException {
+		append(commit, ChangeGraphIO.toBytes(changeGraphs));
+	}
+
+	/**
+	 * Appends the binary change graphs of a commit as one compressed record.
+	 */
+	public synchronized void append(String commit, byte[] raw) throws IOException {
+		if (current == null)
+			open();
+		byte[] name = commit.getBytes(StandardCharsets.UTF_8);
+		byte[] compressed = deflate(raw);
+		crc.reset();
+		crc.update(compressed, 0, compressed.length);
+		ByteBuffer record = ByteBuffer.allocate(2 + name.length + 12 + compressed.length);
+		record.putShort((short) name.length).put(name);
+		record.putInt(raw.length).putInt(compressed.length).putInt((int) crc.getValue());
+		record.put(compressed);
+		// seal early rather than grow past what a reader can map
+		if (!names.isEmpty() && current.length() + record.capacity() + indexLength + 2 + name.length + 8 > SegmentReader.MAX_LENGTH) {
+			seal();
+			open();
+		}
+		long offset = current.length();
+		current.seek(offset);
+		current.write(record.array());
+		names.add(commit);
+		offsets.add(offset);
+		indexLength += 2 + name.length + 8;
+		commits.add(commit);
+		if (current.length() >= sizeLimit)
+			seal();
+	}
+
+	private byte[] deflate(byte[] raw) {
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+		byte[] buf = new byte[8192];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private void open() throws IOException {
+		if (!dir.exists())
+			dir.mkdirs();
+		File segment = new File(dir, String.format("%s%05d%s", PREFIX, nextSegment++, SegmentReader.EXTENSION));
+		current = new RandomAccessFile(segment, "rw");
+		current.setLength(0);
+		current.write(SegmentReader.MAGIC);
+		current.write(SegmentReader.VERSION);
+		names.clear();
+		offsets.clear();
+		indexLength = SegmentReader.TRAILER_SIZE;
+	}
+
+	/**
+	 * Writes the index and the trailer after the records and closes the
+	 * current segment.
+	 */
+	private void seal() throws IOException {
+		long indexOffset = current.length();
+		ByteArrayOutputStream index = new ByteArrayOutputStream();
+		for (int i = 0; i < names.size(); i++) {
+			byte[] name = names.get(i).getBytes(StandardCharsets.UTF_8);
+			ByteBuffer entry = ByteBuffer.allocate(2 + name.length + 8);
+			entry.putShort((short) name.length).put(name).putLong(offsets.get(i));
+			index.write(entry.array(), 0, entry.capacity());
+		}
+		ByteBuffer trailer = ByteBuffer.allocate(SegmentReader.TRAILER_SIZE);
+		trailer.putLong(indexOffset).putInt(names.size()).put(SegmentReader.INDEX_MAGIC);
+		current.seek(indexOffset);
+		current.write(index.toByteArray());
+		current.write(trailer.array());
+		current.getFD().sync();
+		current.close();
+		current = null;
+	}
+
+	private static int getNumber(File segment) {
+		String name = segment.getName();
+		try {
+			return Integer.parseInt(name.substring(PREFIX.length(), name.length() - SegmentReader.EXTENSION.length()));
+		} catch (RuntimeException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Seals the current segment, so it is read through its index.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (current != null)
+			seal();
+		deflater.end();
+	}
+}
@@ -3,6 +3,7 @@ package change;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.jdt.core.dom.*;
 
@@ -37,10 +38,12 @@ public class VectorVisitor extends ASTVisitor {
 	public static final byte NotConsideredFrags = 31;
 
 	/**
-	 * Global Maps between an n-gram and its index and vice versa
+	 * Global Maps between an n-gram and its index and vice versa, shared by
+	 * files transformed on several threads; new indices come from
+	 * {@link #indexOf(int)} only
 	 */
-	public static HashMap<Integer, Integer> gram2Index = new HashMap<Integer, Integer>();
-	public static HashMap<Integer, Integer> index2Gram = new HashMap<Integer, Integer>();
+	public static ConcurrentHashMap<Integer, Integer> gram2Index = new ConcurrentHashMap<Integer, Integer>();
+	public static ConcurrentHashMap<Integer, Integer> index2Gram = new ConcurrentHashMap<Integer, Integer>();
 
 	public static String propertyVector = "vector";
 	public static byte[] indexer = new byte[127]; // category of this node type
@@ -68,6 +71,26 @@ public class VectorVisitor extends ASTVisitor {
 		return vectors;
 	}
 
+	/**
+	 * @return the index of the gram, the next free one if it is new; the
+	 * reverse entry is added first, so an index read from gram2Index can
+	 * always be looked up in index2Gram
+	 */
+	private static int indexOf(int gram) {
+		Integer index = gram2Index.get(gram);
+		if (index != null)
+			return index;
+		synchronized (gram2Index) {
+			index = gram2Index.get(gram);
+			if (index == null) {
+				index = gram2Index.size();
+				index2Gram.put(index, gram);
+				gram2Index.put(gram, index);
+			}
+			return index;
+		}
+	}
+
 	static {
 		int index = 0;
 		for (byte i = 0; i < indexer.length; i++) {
@@ -295,14 +318,7 @@ public class VectorVisitor extends ASTVisitor {
 		 */
 		if (indexer[nodeType] <= 11) {
 			int gram = -indexer[nodeType];
-			int tmpIndex;
-			if (gram2Index.containsKey(gram))
-				tmpIndex = gram2Index.get(gram);
-			else {
-				tmpIndex = gram2Index.size();
-				gram2Index.put(gram, tmpIndex);
-				index2Gram.put(tmpIndex, gram);
-			}
+			int tmpIndex = indexOf(gram);
 			if (myRootVGrams.containsKey(tmpIndex))
 				myRootVGrams.put(tmpIndex, myRootVGrams.get(tmpIndex) + 1);
 			else
@@ -318,14 +334,7 @@ public class VectorVisitor extends ASTVisitor {
 					for (int index : childGram.keySet()) {
 						int gram = index2Gram.get(index);
 						gram = -((indexer[nodeType] << (4 * getSizeOfGram(gram))) - gram);
-						int tmpIndex;
-						if (gram2Index.containsKey(gram))
-							tmpIndex = gram2Index.get(gram);
-						else {
-							tmpIndex = gram2Index.size();
-							gram2Index.put(gram, tmpIndex);
-							index2Gram.put(tmpIndex, gram);
-						}
+						int tmpIndex = indexOf(gram);
 						if (vector.containsKey(tmpIndex))
 							vector.put(tmpIndex, vector.get(tmpIndex)
 									+ childGram.get(index));
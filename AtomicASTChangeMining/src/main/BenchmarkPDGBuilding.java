@@ -0,0 +1,194 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.Statement;
+
+import pdg.graph.PDGBuildingContext;
+import pdg.graph.PDGDataNode;
+import pdg.graph.PDGEdge;
+import pdg.graph.PDGGraph;
+import pdg.graph.PDGNode;
+import treed.TreedConstants;
+import utils.FileIO;
+import utils.JavaASTUtil;
+
+/**
+ * Times PDG construction, and the pruning and closure done by
+ * buildChangeGraph, for every method in a source file or for a generated
+ * method with deeply nested branches, loops and tries over many live locals.
+ * The printed edge checksums let runs of different PDG implementations be
+ * checked for identical output.
+ *
+ * With a hop count, every 25th statement and everything in it is marked as
+ * changed, and only the edges between changed nodes are summed, as they end
+ * up in a change graph. A negative count closes the whole PDG, others close
+ * the neighbourhood of the changes only.
+ *
+ * Usage: BenchmarkPDGBuilding [file.java | depth locals] [repetitions] [hops]
+ */
+public class BenchmarkPDGBuilding {
+
+	public static void main(String[] args) {
+		String source;
+		int reps = 20, next;
+		if (args.length > 0 && args[0].endsWith(".java")) {
+			source = FileIO.readStringFromFile(args[0]);
+			next = 1;
+		} else {
+			int depth = args.length > 0 ? Integer.parseInt(args[0]) : 12;
+			int locals = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+			source = generate(depth, locals);
+			next = 2;
+		}
+		if (args.length > next)
+			reps = Integer.parseInt(args[next]);
+		final boolean changes = args.length > next + 1;
+		int hops = changes ? Integer.parseInt(args[next + 1]) : -1;
+		CompilationUnit cu = (CompilationUnit) JavaASTUtil.parseSource(source);
+		if (changes)
+			markChanges(cu);
+		final ArrayList<MethodDeclaration> methods = new ArrayList<>();
+		cu.accept(new ASTVisitor() {
+			@Override
+			public boolean visit(MethodDeclaration node) {
+				methods.add(node);
+				return false;
+			}
+		});
+		System.out.println("Methods: " + methods.size());
+
+		long checksum = 0, numOfNodes = 0, numOfEdges = 0;
+		long closureChecksum = 0, numOfClosureEdges = 0;
+		for (MethodDeclaration md : methods) {
+			PDGGraph pdg = build(md);
+			numOfNodes += pdg.getNodes().size();
+			ArrayList<String> edges = getEdges(pdg);
+			numOfEdges += edges.size();
+			checksum = checksum * 31 + edges.hashCode();
+			pdg.buildChangeGraph(0, hops);
+			edges = changes ? getChangedEdges(pdg) : getEdges(pdg);
+			numOfClosureEdges += edges.size();
+			closureChecksum = closureChecksum * 31 + edges.hashCode();
+		}
+		System.out.println("Nodes: " + numOfNodes + " Edges: " + numOfEdges + " Checksum: " + Long.toHexString(checksum));
+		System.out.println("Pruned and closed edges: " + numOfClosureEdges + " Checksum: " + Long.toHexString(closureChecksum));
+
+		// warm up
+		for (int i = 0; i < Math.max(1, reps / 4); i++)
+			for (MethodDeclaration md : methods)
+				build(md).buildChangeGraph(0, hops);
+		long buildTime = 0, closureTime = 0;
+		for (int i = 0; i < reps; i++)
+			for (MethodDeclaration md : methods) {
+				long start = System.nanoTime();
+				PDGGraph pdg = build(md);
+				long end = System.nanoTime();
+				pdg.buildChangeGraph(0, hops);
+				buildTime += end - start;
+				closureTime += System.nanoTime() - end;
+			}
+		System.out.println(String.format("Build time: %.2f ms per repetition", buildTime / 1e6 / reps));
+		System.out.println(String.format("Prune and closure time: %.2f ms per repetition", closureTime / 1e6 / reps));
+	}
+
+	private static PDGGraph build(MethodDeclaration md) {
+		return new PDGGraph(md, new PDGBuildingContext(null, null, "Benchmark.java", false));
+	}
+
+	private static ArrayList<String> getEdges(PDGGraph pdg) {
+		ArrayList<String> edges = new ArrayList<>();
+		for (PDGNode node : pdg.getNodes())
+			for (PDGEdge e : node.getOutEdges())
+				edges.add(toString(e.getSource()) + " -" + e.getLabel() + "-> " + toString(e.getTarget()));
+		Collections.sort(edges);
+		return edges;
+	}
+
+	private static ArrayList<String> getChangedEdges(PDGGraph pdg) {
+		ArrayList<String> edges = new ArrayList<>();
+		for (PDGNode node : pdg.getChangedNodes())
+			for (PDGEdge e : node.getInEdges())
+				if (pdg.getChangedNodes().contains(e.getSource()))
+					edges.add(toString(e.getSource()) + " -" + e.getLabel() + "-> " + toString(node));
+		Collections.sort(edges);
+		return edges;
+	}
+
+	private static void markChanges(CompilationUnit cu) {
+		cu.accept(new ASTVisitor() {
+			private int count = 0;
+			private ASTNode changed = null;
+
+			@Override
+			public void preVisit(ASTNode node) {
+				if (changed == null && node instanceof Statement && !(node instanceof Block) && count++ % 25 == 0)
+					changed = node;
+				if (changed != null)
+					node.setProperty(TreedConstants.PROPERTY_STATUS, TreedConstants.STATUS_RELABELED);
+			}
+
+			@Override
+			public void postVisit(ASTNode node) {
+				if (node == changed)
+					changed = null;
+			}
+		});
+	}
+
+	private static String toString(PDGNode node) {
+		ASTNode astNode = node.getAstNode();
+		String label = node instanceof PDGDataNode ? node.getAstNodeType() + ":" + node.getDataName() + ":" + node.getDataType() : node.getLabel();
+		return label + "@" + (astNode == null ? -1 : astNode.getStartPosition());
+	}
+
+	private static String generate(int depth, int locals) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("class Benchmark {\n\tvoid m(int p) {\n");
+		// one declaration statement per ten locals keeps the block under the 100 statement limit
+		for (int i = 0; i < locals; i++)
+			sb.append((i % 10 == 0 ? "\t\tint " : ", ") + "v" + i + " = p + " + i + (i % 10 == 9 || i == locals - 1 ? ";\n" : ""));
+		generate(sb, depth, locals, "\t\t");
+		sb.append("\t\tuse(");
+		for (int i = 0; i < locals; i++)
+			sb.append((i > 0 ? ", " : "") + "v" + i);
+		sb.append(");\n\t}\n}\n");
+		return sb.toString();
+	}
+
+	private static void generate(StringBuilder sb, int depth, int locals, String indent) {
+		if (depth == 0) {
+			sb.append(indent + "v" + (sb.length() % locals) + " = call(p);\n");
+			return;
+		}
+		int v = depth % locals;
+		switch (depth % 3) {
+		case 0:
+			sb.append(indent + "if (v" + v + " > p) {\n");
+			sb.append(indent + "\tv" + v + " = v" + v + " + 1;\n");
+			generate(sb, depth - 1, locals, indent + "\t");
+			sb.append(indent + "} else {\n");
+			generate(sb, depth - 1, locals, indent + "\t");
+			sb.append(indent + "}\n");
+			break;
+		case 1:
+			sb.append(indent + "for (int i" + depth + " = 0; i" + depth + " < v" + v + "; i" + depth + "++) {\n");
+			generate(sb, depth - 1, locals, indent + "\t");
+			sb.append(indent + "}\n");
+			break;
+		default:
+			sb.append(indent + "try {\n");
+			generate(sb, depth - 1, locals, indent + "\t");
+			sb.append(indent + "} catch (Exception e" + depth + ") {\n");
+			sb.append(indent + "\tv" + v + " = 0;\n");
+			sb.append(indent + "}\n");
+			break;
+		}
+	}
+}
@@ -3,27 +3,22 @@ package main;
 import java.io.File;
 import java.io.IOException;
 import java.util.Scanner;
-import java.util.concurrent.Callable;
-import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.SystemUtils;
 
 import transformation.Transformation;
+import utils.Config;
 import utils.FileIO;
-import utils.NotifyingBlockingThreadPoolExecutor;
-import change.ChangeAnalyzer;
+import change.ExtractionPipeline;
 
 
 public class MainChangeAnalyzer {
-    private static int THREAD_POOL_SIZE = 1;
+    // threads of the enumerate, fetch, transform, map, build and write stages
+    private static int[] STAGE_POOL_SIZES = {1, 1, 1, 1, 1, 1};
+    private static int STAGE_QUEUE_SIZE = 16;
+    private static long STATS_INTERVAL = 60;
 
-    private static final Callable<Boolean> blockingTimeoutCallback = new Callable<Boolean>() {
-        @Override
-        public Boolean call() throws Exception {
-            return true; // keep waiting
-        }
-    };
-    private static NotifyingBlockingThreadPoolExecutor pool = new NotifyingBlockingThreadPoolExecutor(THREAD_POOL_SIZE, THREAD_POOL_SIZE, 15, TimeUnit.SECONDS, 200, TimeUnit.MILLISECONDS, blockingTimeoutCallback);
+    private static ExtractionPipeline pipeline;
 
     public static String inputPath = "/Users/farazgurramkonda/IdeaProjects/CPatMinerV2/CPatMinerV2/AtomicASTChangeMining/Res/", outputPath = "/Users/farazgurramkonda/IdeaProjects/CPatMinerV2/CPatMinerV2/AtomicASTChangeMining/outputs";
 
@@ -40,11 +35,35 @@ public class MainChangeAnalyzer {
                 if (args[i].equals("-o")) {
                     outputPath = args[i + 1];
                 }
+                if (args[i].equals("-threads")) {
+                    String[] sizes = args[i + 1].split(",");
+                    for (int j = 0; j < sizes.length && j < STAGE_POOL_SIZES.length; j++)
+                        STAGE_POOL_SIZES[j] = Integer.parseInt(sizes[j]);
+                }
+                if (args[i].equals("-queue")) {
+                    STAGE_QUEUE_SIZE = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("-stats")) {
+                    STATS_INTERVAL = Long.parseLong(args[i + 1]);
+                }
+                if (args[i].equals("-hops")) {
+                    Config.changeNeighborhoodHops = Integer.parseInt(args[i + 1]);
+                }
+                if (args[i].equals("-segment")) {
+                    long size = Long.parseLong(args[i + 1]);
+                    // segments are read back memory mapped, so they must stay under 2 GB
+                    if (size <= 0 || size >= 2048)
+                        throw new IllegalArgumentException("-segment takes a size in MB from 1 to 2047 but got " + size);
+                    Config.segmentSize = size << 20;
+                }
             }
         }
 
         inputPath = "/Users/farazgurramkonda/IdeaProjects/CPatMinerV2/CPatMinerV2/AtomicASTChangeMining/Res";
         outputPath = "/Users/farazgurramkonda/IdeaProjects/CPatMinerV2/CPatMinerV2/AtomicASTChangeMining/outputs";
+        pipeline = new ExtractionPipeline(STAGE_POOL_SIZES, STAGE_QUEUE_SIZE);
+        if (STATS_INTERVAL > 0)
+            pipeline.startReporting(System.out, STATS_INTERVAL);
         String content = FileIO.readStringFromFile(inputPath + "/GitHubProj.csv");
         Scanner sc = new Scanner(content);
         while (sc.hasNextLine()) {
@@ -59,32 +78,19 @@ public class MainChangeAnalyzer {
         sc.close();
 
         try {
-            pool.await(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            pipeline.await();
         } catch (final InterruptedException e) {
         }
+        pipeline.printStats(System.out);
+        pipeline.shutdown();
     }
 
     private static void analyze(final File dir, final String name) {
         if (!dir.isDirectory())
             return;
         File git = new File(dir, ".git");
-        if (git.exists()) {
-            pool.execute(new Runnable() {
-                @Override
-                public void run() {
-                    long startProjectTime = System.currentTimeMillis();
-                    System.out.println(name);
-                    String url = dir.getAbsolutePath();
-                    ChangeAnalyzer ca = new ChangeAnalyzer(name, -1, url);
-                    ca.buildGitConnector();
-                    ca.analyzeGit();
-                    long endProjectTime = System.currentTimeMillis();
-                    ca.getCproject().setRunningTime(endProjectTime - startProjectTime);
-                    ca.closeGitConnector();
-                    System.out.println("Done " + name + " in " + (endProjectTime - startProjectTime) / 1000 + "s");
-                }
-            });
-        }
+        if (git.exists())
+            pipeline.submit(name, dir.getAbsolutePath());
     }
 
 }
@@ -1,6 +1,8 @@
 package main;
 
 import change.ChangeGraph;
+import change.ChangeGraphIO;
+import change.SegmentReader;
 import groum.GROUMGraph;
 import mining.Mineer;
 import mining.Miner;
@@ -12,6 +14,7 @@ import utils.FileIO;
 import utils.NotifyingBlockingThreadPoolExecutor;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
@@ -167,44 +170,60 @@ public class MineChangePatterns {
 		for (int i = 0; i < files.length; i++) {
 			File sub = files[i];
 			System.out.println("files:" + files[i].getName());
-			if (!sub.getName().endsWith(".dat")) continue;
+			if (!ChangeGraphIO.isChangeGraphFile(sub.getName())) continue;
 			numOfCommits.incrementAndGet();
 			System.out.println("numberofcommits:" + numOfCommits.get());
 			//System.out.println("Commit " + i + ": " + file.getName());
 			//@SuppressWarnings("unchecked")
-			HashMap<String, HashMap<String, ChangeGraph>> fileChangeGraphs = (HashMap<String, HashMap<String, ChangeGraph>>) FileIO.readObjectFromFile(sub.getAbsolutePath());
-			if (fileChangeGraphs != null) {
-				for (String fp : fileChangeGraphs.keySet()) {
-					System.out.println(fp);
-					HashMap<String, ChangeGraph> cgs = fileChangeGraphs.get(fp);
-					for (String method : cgs.keySet()) {
-						System.out.println("methods:" + method);
-						int index = sub.getName().indexOf('.');
-						if (index < 0) {
-							index = sub.getName().length();
-						}
-						String name = FileIO.getSimpleFileName(sub.getName().substring(0, index)) + "," + fp + "," + method;
-						System.out.println("name in readgraphs:" + name);
-						System.out.println("cgs::" + cgs.get(method));
-						ChangeGraph cg = cgs.get(method);
-						System.out.println("cg:" + cg);
-						changeGraphList.add(cg);
-						if (cg.getNodes().size() <= 2) continue;
-						numOfGraphs.incrementAndGet();
-						GROUMGraph g = new GROUMGraph(cg, name);
-//						// FIXME
-						res.add(g);
-						g.pruneDoubleEdges();
-						g.setProject(projectName);
-						graphs.add(g);
-					}
+			HashMap<String, HashMap<String, ChangeGraph>> fileChangeGraphs = ChangeGraphIO.read(sub);
+			int index = sub.getName().indexOf('.');
+			if (index < 0) {
+				index = sub.getName().length();
+			}
+			addGraphs(FileIO.getSimpleFileName(sub.getName().substring(0, index)), fileChangeGraphs, projectName, graphs, res, changeGraphList);
+		}
+		for (File segment : SegmentReader.listSegments(dir)) {
+			System.out.println("segment:" + segment.getName());
+			try (SegmentReader reader = new SegmentReader(segment)) {
+				for (String commit : reader.getCommits()) {
+					numOfCommits.incrementAndGet();
+					addGraphs(commit, reader.read(commit), projectName, graphs, res, changeGraphList);
 				}
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
 			}
 		}
 		System.out.println(changeGraphList);
 		System.out.println("graphs:"+res);
         return graphs;
     }
+
+	private static void addGraphs(String commit, HashMap<String, HashMap<String, ChangeGraph>> fileChangeGraphs, String projectName,
+			ArrayList<GROUMGraph> graphs, ArrayList<GROUMGraph> res, List<ChangeGraph> changeGraphList) {
+		if (fileChangeGraphs == null)
+			return;
+		for (String fp : fileChangeGraphs.keySet()) {
+			System.out.println(fp);
+			HashMap<String, ChangeGraph> cgs = fileChangeGraphs.get(fp);
+			for (String method : cgs.keySet()) {
+				System.out.println("methods:" + method);
+				String name = commit + "," + fp + "," + method;
+				System.out.println("name in readgraphs:" + name);
+				System.out.println("cgs::" + cgs.get(method));
+				ChangeGraph cg = cgs.get(method);
+				System.out.println("cg:" + cg);
+				changeGraphList.add(cg);
+				if (cg.getNodes().size() <= 2) continue;
+				numOfGraphs.incrementAndGet();
+				GROUMGraph g = new GROUMGraph(cg, name);
+//				// FIXME
+				res.add(g);
+				g.pruneDoubleEdges();
+				g.setProject(projectName);
+				graphs.add(g);
+			}
+		}
+	}
 }
 //
 //			}
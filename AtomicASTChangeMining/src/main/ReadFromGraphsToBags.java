@@ -1,7 +1,9 @@
 package main;
 
 import java.io.File;
-import java.util.Arrays;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -10,7 +12,9 @@ import java.util.Scanner;
 import java.util.Set;
 
 import change.ChangeGraph;
+import change.ChangeGraphIO;
 import change.ChangeNode;
+import change.SegmentReader;
 import utils.FileIO;
 
 public class ReadFromGraphsToBags {
@@ -40,39 +44,47 @@ public class ReadFromGraphsToBags {
 				if (!names.contains(user.getName() + "/" + repo.getName()))
 					continue;
 				System.out.println(repo);
-				File[] files = repo.listFiles();
+				// commits are in per-commit files, or appended to segments by newer extractions
+				HashMap<String, File> commitFiles = new HashMap<>();
+				for (File file : repo.listFiles())
+					if (ChangeGraphIO.isChangeGraphFile(file.getName()))
+						commitFiles.put(FileIO.getSimpleFileName(file.getName()), file);
+				ArrayList<SegmentReader> segments = new ArrayList<>();
+				HashMap<String, SegmentReader> commitSegments = new HashMap<>();
+				for (File segment : SegmentReader.listSegments(repo)) {
+					try {
+						SegmentReader reader = new SegmentReader(segment);
+						segments.add(reader);
+						for (String commit : reader.getCommits())
+							if (!commitFiles.containsKey(commit))
+								commitSegments.put(commit, reader);
+					} catch (IOException e) {
+						System.err.println(e.getMessage());
+					}
+				}
 				HashMap<String, Integer> commitTime = (HashMap<String, Integer>) FileIO.readObjectFromFile("/Users/farazgurramkonda/IdeaProjects/CPatMinerV2/CPatMinerV2/AtomicASTChangeMining/Res/"+user.getName()+"---"+repo.getName()+".time");
 				System.out.println(user.getName());
 				System.out.println(repo.getName());
-				Arrays.sort(files, new Comparator<File>() {
+				ArrayList<String> commits = new ArrayList<>(commitFiles.keySet());
+				commits.addAll(commitSegments.keySet());
+				Collections.sort(commits, new Comparator<String>() {
 					@Override
-					public int compare(File f1, File f2) {
-						String name1 = f1.getName();
-						System.out.println(name1);
-						if (name1.endsWith(".dat"))
-							name1 = name1.substring(0, name1.length() - 4);
-						else
-							return 1;
-						String name2 = f2.getName();
-						System.out.println(name2);
-						if (name2.endsWith(".dat"))
-							name2 = name2.substring(0, name2.length() - 4);
-						else
-							return -1;
+					public int compare(String name1, String name2) {
 						return commitTime.get(name2) - commitTime.get(name1);
 					}
 				});
-				for (int i = 0; i < Math.min(files.length, 50); i++) {
-					File commit = files[i];
-					if (commit.getName().endsWith(".dat")) {
-						commitProject.put(FileIO.getSimpleFileName(commit.getName()), user.getName() + "/" + repo.getName());
-						HashMap<String, HashMap<String, ChangeGraph>> fileChangeGraphs = (HashMap<String, HashMap<String, ChangeGraph>>) FileIO.readObjectFromFile(commit.getAbsolutePath());
+				for (int i = 0; i < Math.min(commits.size(), 50); i++) {
+					String commit = commits.get(i);
+					File file = commitFiles.get(commit);
+					HashMap<String, HashMap<String, ChangeGraph>> fileChangeGraphs = file != null ? ChangeGraphIO.read(file) : commitSegments.get(commit).read(commit);
+					if (fileChangeGraphs != null) {
+						commitProject.put(commit, user.getName() + "/" + repo.getName());
 						for (String fp : fileChangeGraphs.keySet()) {
 							System.out.println(fp);
 							HashMap<String, ChangeGraph> cgs = fileChangeGraphs.get(fp);
 							for (String method : cgs.keySet()) {
 								System.out.println(method);
-								String name = FileIO.getSimpleFileName(commit.getName()) + "," + fp + "," + method;
+								String name = commit + "," + fp + "," + method;
 								ChangeGraph cg = cgs.get(method);
 								if (cg.getNodes().size() <= 2) continue;
 								sb.append(name);
@@ -97,6 +109,13 @@ public class ReadFromGraphsToBags {
 						}
 					}
 				}
+				for (SegmentReader reader : segments) {
+					try {
+						reader.close();
+					} catch (IOException e) {
+						System.err.println(e.getMessage());
+					}
+				}
 			}
 		}
 		File outDir = new File(outPath);
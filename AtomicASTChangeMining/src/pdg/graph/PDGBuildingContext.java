@@ -1,15 +1,11 @@
 package pdg.graph;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Stack;
 
-import org.eclipse.jdt.core.JavaCore;
-import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
-import org.eclipse.jdt.core.dom.ASTParser;
 import org.eclipse.jdt.core.dom.ArrayAccess;
 import org.eclipse.jdt.core.dom.CompilationUnit;
 import org.eclipse.jdt.core.dom.EnumDeclaration;
@@ -25,15 +21,8 @@ import org.eclipse.jdt.core.dom.SimpleName;
 import org.eclipse.jdt.core.dom.SuperFieldAccess;
 import org.eclipse.jdt.core.dom.TypeDeclaration;
 import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
-import org.eclipse.jgit.lib.Constants;
-import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevTree;
-import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.TreeWalk;
-import org.eclipse.jgit.treewalk.filter.PathFilter;
 
 import utils.JavaASTUtil;
 
@@ -47,16 +36,24 @@ public class PDGBuildingContext {
 	private Stack<HashSet<PDGActionNode>> stkTrys = new Stack<>();
 	private Stack<HashMap<String, String>> localVariables = new Stack<>(), localVariableTypes = new Stack<>();
 	private HashMap<String, String> fieldTypes = new HashMap<>();
+	private boolean superFieldTypesBuilt = false;
+	private ParsedFileCache fileCache;
 	
 	public PDGBuildingContext(Repository repository, RevCommit commit, String sourceFilePath, boolean interprocedural) {
-		this.repository = repository;
-		this.revCommit = commit;
+		this(new ParsedFileCache(repository, commit), sourceFilePath, interprocedural);
+	}
+
+	public PDGBuildingContext(ParsedFileCache fileCache, String sourceFilePath, boolean interprocedural) {
+		this.fileCache = fileCache;
+		this.repository = fileCache.getRepository();
+		this.revCommit = fileCache.getRevCommit();
 		this.sourceFilePath = sourceFilePath;
 		this.interprocedural = interprocedural;
 	}
 	
 	public PDGBuildingContext(PDGBuildingContext context) {
 		this.interprocedural = context.interprocedural;
+		this.fileCache = context.fileCache;
 	}
 
 	public void setMethod(MethodDeclaration method, boolean buildFieldType) {
@@ -200,14 +197,17 @@ public class PDGBuildingContext {
 
 	public String getFieldType(String name) {
 		String type = this.fieldTypes.get(name);
-		if (type == null) {
-//			buildSuperFieldTypes();
+		if (type == null && interprocedural && !superFieldTypesBuilt) {
+			superFieldTypesBuilt = true;
+			buildSuperFieldTypes();
 			type = this.fieldTypes.get(name);
 		}
 		return type;
 	}
 
 	private void buildSuperFieldTypes() {
+		if (this.method == null)
+			return;
 		ASTNode p = this.method.getParent();
 		if (p != null && p instanceof TypeDeclaration)
 			buildSuperFieldTypes((TypeDeclaration) p);
@@ -223,57 +223,14 @@ public class PDGBuildingContext {
 			buildSuperFieldTypes((TypeDeclaration) p);
 	}
 
-	@SuppressWarnings("unchecked")
 	private void buildSuperFieldTypes(String stype) {
-		String path = getSuperTypePath(stype);
-		try (RevWalk revWalk = new RevWalk(repository)) {
-            RevTree tree = revCommit.getTree();
-            // now try to find a specific file
-            try (TreeWalk treeWalk = new TreeWalk(repository)) {
-                treeWalk.addTree(tree);
-                treeWalk.setRecursive(true);
-                treeWalk.setFilter(PathFilter.create(path));
-                if (!treeWalk.next())
-                    return;
-                ObjectId objectId = treeWalk.getObjectId(0);
-        		String content = null;
-    			ObjectLoader ldr = repository.open(objectId, Constants.OBJ_BLOB);
-    			content = new String(ldr.getCachedBytes());
-    			@SuppressWarnings("rawtypes")
-    			Map options = JavaCore.getOptions();
-    			options.put(JavaCore.COMPILER_COMPLIANCE, JavaCore.VERSION_1_7);
-    			options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, JavaCore.VERSION_1_7);
-    			options.put(JavaCore.COMPILER_SOURCE, JavaCore.VERSION_1_7);
-    			ASTParser parser = ASTParser.newParser(AST.JLS4);
-    			parser.setSource(content.toCharArray());
-    			parser.setCompilerOptions(options);
-    			ASTNode ast = parser.createAST(null);
-    			if (ast instanceof CompilationUnit) {
-    				CompilationUnit cu = (CompilationUnit)ast;
-    				for (int i = 0; i < cu.types().size(); i++) {
-    					if (cu.types().get(i) instanceof TypeDeclaration) {
-    						TypeDeclaration td = (TypeDeclaration) cu.types().get(i);
-    						if (td.getName().getIdentifier().equals(stype)) {
-    							for (FieldDeclaration f : td.getFields()) {
-    								String type = JavaASTUtil.getSimpleType(f.getType());
-    								for (int j = 0; j < f.fragments().size(); j++) {
-    									VariableDeclarationFragment vdf = (VariableDeclarationFragment) f.fragments().get(j);
-    									String name = vdf.getName().getIdentifier();
-    									if (!this.fieldTypes.containsKey(name))
-    										this.fieldTypes.put(name, type);
-    								}
-    							}
-    						}
-    					}
-    				}
-        		}
-            } catch (IOException e) {
-    			System.err.println(e.getMessage());
-    			return;
-			}
-
-            revWalk.dispose();
-        }
+		HashMap<String, String> superFieldTypes = fileCache.get(getSuperTypePath(stype)).getFieldTypes(stype);
+		if (superFieldTypes == null)
+			return;
+		for (Map.Entry<String, String> e : superFieldTypes.entrySet()) {
+			if (!this.fieldTypes.containsKey(e.getKey()))
+				this.fieldTypes.put(e.getKey(), e.getValue());
+		}
 	}
 
 	private String getSuperTypePath(String stype) {
@@ -0,0 +1,555 @@
+package pdg.graph;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+
+import pdg.graph.PDGDataEdge.Type;
+
+/**
+ * Data, sequential and control closure of a PDG over dense node indices.
+ *
+ * Nodes reachable from the graph's nodes are numbered once, and every
+ * transitive set is a long[] bit row over those numbers. Rows are filled in
+ * post-order of the dependences between nodes, so each row is the union of
+ * already finished rows; if the dependences contain a cycle the rows are
+ * propagated again until they stop growing. New edges are created only after
+ * the rows are final, from the difference between a row and the in-edges the
+ * node already has, which gives the same edges as closing one node at a time.
+ *
+ * The closure can also be limited to a set of root nodes, for example the
+ * changed nodes of a change graph. Then only the roots, the nodes they depend
+ * on within a given number of hops, and the control ancestors of the roots
+ * are closed. Edges between the roots are the same as with the whole graph
+ * closed as long as the hops cover the dependence chains.
+ */
+class PDGClosure {
+	private static final int NUM_OF_TYPES = Type.values().length;
+
+	private PDGGraph graph;
+	private ArrayList<PDGNode> nodeAt = new ArrayList<>();
+	private HashMap<PDGNode, Integer> indexOf = new HashMap<>();
+	private int n, words;
+	private long[] dataMask, actionMask;
+	private Collection<PDGNode> roots;
+	private int hops;
+	private HashSet<PDGNode> controlAncestors;
+
+	PDGClosure(PDGGraph graph) {
+		this(graph, null, -1);
+	}
+
+	/**
+	 * @param roots nodes to close, null for all nodes of the graph
+	 * @param hops how far to follow dependences from the roots, negative for no limit
+	 */
+	PDGClosure(PDGGraph graph, Collection<PDGNode> roots, int hops) {
+		this.graph = graph;
+		this.roots = roots == null ? graph.nodes : roots;
+		this.hops = hops;
+		ArrayDeque<PDGNode> queue = new ArrayDeque<>();
+		if (graph.entryNode != null)
+			index(graph.entryNode, queue);
+		for (PDGNode node : graph.nodes)
+			index(node, queue);
+		while (!queue.isEmpty()) {
+			PDGNode node = queue.poll();
+			for (PDGEdge e : node.inEdges)
+				index(e.source, queue);
+			for (PDGEdge e : node.outEdges)
+				index(e.target, queue);
+		}
+		n = nodeAt.size();
+		words = (n + 63) >>> 6;
+		dataMask = new long[words];
+		actionMask = new long[words];
+		for (int i = 0; i < n; i++) {
+			if (nodeAt.get(i) instanceof PDGDataNode)
+				set(dataMask, i);
+			else if (nodeAt.get(i) instanceof PDGActionNode)
+				set(actionMask, i);
+		}
+		if (roots != null)
+			controlAncestors = getControlAncestors();
+	}
+
+	/*
+	 * The control closure of a root reads the in-edges of its control
+	 * ancestors, so those are closed for data too, and are the only nodes
+	 * whose sequential dependences can reach a root.
+	 */
+	private HashSet<PDGNode> getControlAncestors() {
+		HashSet<PDGNode> ancestors = new HashSet<>(roots);
+		ArrayDeque<PDGNode> queue = new ArrayDeque<>(roots);
+		HashMap<PDGNode, Integer> depth = new HashMap<>();
+		for (PDGNode root : roots)
+			depth.put(root, 0);
+		while (!queue.isEmpty()) {
+			PDGNode node = queue.poll();
+			int d = depth.get(node);
+			if (hops >= 0 && d >= hops)
+				continue;
+			for (PDGEdge e : node.inEdges) {
+				if (e instanceof PDGControlEdge && ancestors.add(e.source)) {
+					depth.put(e.source, d + 1);
+					queue.add(e.source);
+				}
+			}
+		}
+		return ancestors;
+	}
+
+	private ArrayList<Integer> indices(Collection<PDGNode> nodes) {
+		ArrayList<Integer> indices = new ArrayList<>();
+		for (PDGNode node : nodes)
+			indices.add(indexOf.get(node));
+		return indices;
+	}
+
+	private void index(PDGNode node, ArrayDeque<PDGNode> queue) {
+		if (!indexOf.containsKey(node)) {
+			indexOf.put(node, nodeAt.size());
+			nodeAt.add(node);
+			queue.add(node);
+		}
+	}
+
+	/*
+	 * A node with no definitions of its own receives, for each data in-edge,
+	 * an edge of the same type from the definitions of the edge's source and
+	 * from the non data nodes feeding those definitions, or the source itself
+	 * when it has no definitions. The latter set is the node's row.
+	 */
+	void buildDataClosure() {
+		final DataIn[][] ins = new DataIn[n][];
+		final long[][] rows = new long[n][];
+		Visit visit = new Visit() {
+			@Override
+			int[] dependences(int i) {
+				PDGNode node = nodeAt.get(i);
+				if (!node.getDefinitions().isEmpty() || node.inEdges.isEmpty())
+					return new int[0];
+				ArrayList<DataIn> l = new ArrayList<>();
+				int size = 0;
+				for (PDGEdge e : node.inEdges) {
+					if (e instanceof PDGDataEdge) {
+						DataIn in = new DataIn((PDGDataEdge) e);
+						l.add(in);
+						size += in.inNodes.length;
+					}
+				}
+				ins[i] = l.toArray(new DataIn[l.size()]);
+				int[] deps = new int[size];
+				size = 0;
+				for (DataIn in : ins[i])
+					for (int j : in.inNodes)
+						deps[size++] = j;
+				return deps;
+			}
+
+			@Override
+			boolean update(int i) {
+				boolean changed = false;
+				if (rows[i] == null) {
+					rows[i] = new long[words];
+					for (PDGEdge e : nodeAt.get(i).inEdges)
+						if (e instanceof PDGDataEdge && !(e.source instanceof PDGDataNode))
+							set(rows[i], indexOf.get(e.source));
+					changed = true;
+				}
+				if (ins[i] == null)
+					return changed;
+				for (DataIn in : ins[i]) {
+					for (int j : in.inNodes) {
+						if (in.viaDefinitions && !get(dataMask, j) && !get(rows[i], j)) {
+							set(rows[i], j);
+							changed = true;
+						}
+						if (rows[j] != null)
+							changed |= or(rows[i], rows[j]);
+					}
+				}
+				return changed;
+			}
+		};
+		visit.run(indices(controlAncestors == null ? roots : controlAncestors));
+		visit.stabilize();
+
+		long[] added = new long[words], existing = new long[words];
+		for (int i : visit.order) {
+			if (ins[i] == null)
+				continue;
+			PDGNode node = nodeAt.get(i);
+			boolean[] doneTypes = new boolean[NUM_OF_TYPES];
+			for (DataIn in : ins[i]) {
+				if (doneTypes[in.type.ordinal()])
+					continue;
+				doneTypes[in.type.ordinal()] = true;
+				clear(added);
+				for (DataIn other : ins[i]) {
+					if (other.type != in.type)
+						continue;
+					for (int j : other.inNodes) {
+						if (other.viaDefinitions)
+							set(added, j);
+						or(added, rows[j]);
+					}
+				}
+				clear(existing);
+				for (PDGEdge e : node.inEdges)
+					if (e.getLabel().equals(in.label))
+						set(existing, indexOf.get(e.source));
+				andNot(added, existing);
+				for (int j = next(added, 0); j >= 0; j = next(added, j + 1))
+					new PDGDataEdge(nodeAt.get(j), node, in.type);
+			}
+		}
+	}
+
+	private class DataIn {
+		private Type type;
+		private String label;
+		private boolean viaDefinitions;
+		private int[] inNodes;
+
+		private DataIn(PDGDataEdge e) {
+			this.type = e.type;
+			this.label = e.getLabel();
+			ArrayList<PDGNode> defs = e.source.getDefinitions();
+			this.viaDefinitions = !defs.isEmpty();
+			if (defs.isEmpty())
+				defs.add(e.source);
+			this.inNodes = new int[defs.size()];
+			for (int k = 0; k < defs.size(); k++)
+				inNodes[k] = indexOf.get(defs.get(k));
+		}
+	}
+
+	/*
+	 * Every action node depends on the earlier siblings of itself and of its
+	 * control ancestors that share a definition or a field with it.
+	 */
+	void buildSequentialClosure() {
+		HashMap<PDGNode, long[]> preRows = new HashMap<>();
+		preRows.put(graph.entryNode, new long[words]);
+		for (PDGNode node : graph.nodes) {
+			if (node == graph.entryNode || node instanceof PDGControlNode) {
+				HashMap<String, ArrayList<PDGNode>> branchNodes = new HashMap<>();
+				branchNodes.put("T", new ArrayList<PDGNode>());
+				branchNodes.put("F", new ArrayList<PDGNode>());
+				branchNodes.put("", new ArrayList<PDGNode>());
+				for (PDGEdge e : node.outEdges) {
+					if (e.target != graph.endNode && e.target.control != null && e.target.astNodeType != ASTNode.ASSIGNMENT)
+						branchNodes.get(e.getLabel()).add(e.target);
+				}
+				for (ArrayList<PDGNode> siblings : branchNodes.values()) {
+					long[] row = new long[words];
+					for (PDGNode sibling : siblings) {
+						preRows.put(sibling, row.clone());
+						set(row, indexOf.get(sibling));
+					}
+				}
+			}
+		}
+		HashMap<PDGNode, long[]> closedRows = new HashMap<>();
+		closedRows.put(graph.entryNode, preRows.get(graph.entryNode));
+		for (PDGNode node : preRows.keySet())
+			closePreNodes(node, preRows, closedRows);
+
+		// action nodes using each definition node and each field
+		HashMap<Integer, long[]> defUsers = new HashMap<>();
+		HashMap<String, long[]> fieldUsers = new HashMap<>();
+		HashMap<PDGNode, ArrayList<long[]>> usedRows = new HashMap<>();
+		for (int i = next(actionMask, 0); i >= 0; i = next(actionMask, i + 1)) {
+			ArrayList<long[]> used = new ArrayList<>();
+			for (PDGEdge e : nodeAt.get(i).inEdges) {
+				if (e.source instanceof PDGDataNode) {
+					ArrayList<PDGNode> defs = e.source.getDefinitions();
+					if (defs.isEmpty()) {
+						long[] row = fieldUsers.get(e.source.key);
+						if (row == null) {
+							row = new long[words];
+							fieldUsers.put(e.source.key, row);
+						}
+						set(row, i);
+						used.add(row);
+					} else {
+						for (PDGNode def : defs) {
+							long[] row = defUsers.get(indexOf.get(def));
+							if (row == null) {
+								row = new long[words];
+								defUsers.put(indexOf.get(def), row);
+							}
+							set(row, i);
+							used.add(row);
+						}
+					}
+				}
+			}
+			usedRows.put(nodeAt.get(i), used);
+		}
+
+		long[] candidates = new long[words];
+		for (PDGNode node : preRows.keySet()) {
+			if (!(node instanceof PDGActionNode) || (controlAncestors != null && !controlAncestors.contains(node)))
+				continue;
+			clear(candidates);
+			for (long[] row : usedRows.get(node))
+				or(candidates, row);
+			and(candidates, closedRows.get(node));
+			and(candidates, actionMask);
+			for (PDGEdge e : node.inEdges)
+				clear(candidates, indexOf.get(e.source));
+			for (int j = next(candidates, 0); j >= 0; j = next(candidates, j + 1))
+				new PDGDataEdge(nodeAt.get(j), node, Type.DEPENDENCE);
+		}
+	}
+
+	private void closePreNodes(PDGNode node, HashMap<PDGNode, long[]> preRows, HashMap<PDGNode, long[]> closedRows) {
+		ArrayList<PDGNode> chain = new ArrayList<>();
+		while (node != null && !closedRows.containsKey(node)) {
+			chain.add(node);
+			node = node.control;
+		}
+		long[] row = node == null ? null : closedRows.get(node);
+		for (int k = chain.size() - 1; k >= 0; k--) {
+			long[] own = preRows.get(chain.get(k));
+			if (own == null)
+				own = new long[words];
+			if (row != null)
+				or(own, row);
+			closedRows.put(chain.get(k), own);
+			row = own;
+		}
+	}
+
+	/*
+	 * An action or control node receives a control edge for every in-edge of
+	 * its control parents, labelled like that in-edge. Rows here are over
+	 * (source, label) pairs and are kept only for nodes that are a parent.
+	 */
+	void buildControlClosure() {
+		final HashMap<String, Integer> labels = new HashMap<>();
+		for (PDGNode node : nodeAt)
+			for (PDGEdge e : node.inEdges)
+				if (!labels.containsKey(e.getLabel()))
+					labels.put(e.getLabel(), labels.size());
+		final String[] labelAt = new String[labels.size()];
+		for (String label : labels.keySet())
+			labelAt[labels.get(label)] = label;
+		final int pairWords = (int) (((long) labels.size() * n + 63) >>> 6);
+
+		final int[][] parents = new int[n][];
+		final boolean[] isParent = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			ArrayList<PDGEdge> in = nodeAt.get(i).inEdges;
+			int size = 0;
+			for (PDGEdge e : in)
+				if (e instanceof PDGControlEdge)
+					size++;
+			parents[i] = new int[size];
+			size = 0;
+			for (PDGEdge e : in)
+				if (e instanceof PDGControlEdge) {
+					int j = indexOf.get(e.source);
+					parents[i][size++] = j;
+					isParent[j] = true;
+				}
+		}
+		final long[][] rows = new long[n][];
+		Visit visit = new Visit() {
+			@Override
+			int[] dependences(int i) {
+				return parents[i];
+			}
+
+			@Override
+			boolean update(int i) {
+				if (!isParent[i])
+					return false;
+				boolean changed = false;
+				if (rows[i] == null) {
+					rows[i] = new long[pairWords];
+					pairs(nodeAt.get(i), labels, rows[i]);
+					changed = true;
+				}
+				if (closes(nodeAt.get(i)))
+					for (int j : deps[i])
+						if (rows[j] != null)
+							changed |= or(rows[i], rows[j]);
+				return changed;
+			}
+		};
+		visit.run(indices(roots));
+		visit.stabilize();
+
+		long[] added = new long[pairWords], existing = new long[pairWords];
+		for (int i : visit.order) {
+			PDGNode node = nodeAt.get(i);
+			// nodes at the hop limit have no dependences followed and are left as they are
+			if (visit.deps[i].length == 0 || !closes(node))
+				continue;
+			clear(added);
+			for (int j : visit.deps[i])
+				or(added, rows[j]);
+			clear(existing);
+			pairs(node, labels, existing);
+			andNot(added, existing);
+			for (int k = next(added, 0); k >= 0; k = next(added, k + 1))
+				new PDGControlEdge(nodeAt.get(k % n), node, labelAt[k / n]);
+		}
+	}
+
+	private static boolean closes(PDGNode node) {
+		return node instanceof PDGActionNode || node instanceof PDGControlNode;
+	}
+
+	private void pairs(PDGNode node, HashMap<String, Integer> labels, long[] row) {
+		for (PDGEdge e : node.inEdges)
+			set(row, labels.get(e.getLabel()) * n + indexOf.get(e.source));
+	}
+
+	/**
+	 * Traversal along the dependences of the nodes, filling the row of each
+	 * node after the rows of everything it depends on.
+	 */
+	private abstract class Visit {
+		int[][] deps = new int[n][];
+		private ArrayList<Integer> order = new ArrayList<>();
+		private boolean cyclic = false;
+
+		abstract int[] dependences(int i);
+
+		/**
+		 * @return true if the row of the node has grown
+		 */
+		abstract boolean update(int i);
+
+		/*
+		 * Dependences are collected breadth first so that every node gets its
+		 * shortest hop count from the roots; nodes at the hop limit are left
+		 * as they are. Rows are then filled in depth first post-order.
+		 */
+		void run(ArrayList<Integer> roots) {
+			int[] depth = new int[n];
+			Arrays.fill(depth, -1);
+			ArrayDeque<Integer> queue = new ArrayDeque<>();
+			for (int root : roots) {
+				if (depth[root] < 0) {
+					depth[root] = 0;
+					queue.add(root);
+				}
+			}
+			while (!queue.isEmpty()) {
+				int i = queue.poll();
+				deps[i] = hops < 0 || depth[i] < hops ? dependences(i) : new int[0];
+				for (int j : deps[i]) {
+					if (depth[j] < 0) {
+						depth[j] = depth[i] + 1;
+						queue.add(j);
+					}
+				}
+			}
+
+			byte[] state = new byte[n];
+			int[] cursor = new int[n];
+			ArrayDeque<Integer> stack = new ArrayDeque<>();
+			for (int root : roots) {
+				if (state[root] != 0)
+					continue;
+				state[root] = 1;
+				stack.push(root);
+				while (!stack.isEmpty()) {
+					int i = stack.peek();
+					if (cursor[i] < deps[i].length) {
+						int j = deps[i][cursor[i]++];
+						if (state[j] == 0) {
+							state[j] = 1;
+							stack.push(j);
+						} else if (state[j] == 1)
+							cyclic = true;
+					} else {
+						stack.pop();
+						update(i);
+						state[i] = 2;
+						order.add(i);
+					}
+				}
+			}
+		}
+
+		void stabilize() {
+			if (!cyclic)
+				return;
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+				for (int i : order)
+					changed |= update(i);
+			}
+		}
+	}
+
+	private static void set(long[] row, int i) {
+		row[i >>> 6] |= 1L << i;
+	}
+
+	private static void clear(long[] row, int i) {
+		row[i >>> 6] &= ~(1L << i);
+	}
+
+	private static boolean get(long[] row, int i) {
+		return (row[i >>> 6] & (1L << i)) != 0;
+	}
+
+	private static void clear(long[] row) {
+		Arrays.fill(row, 0L);
+	}
+
+	/**
+	 * @return true if any bit was added to the first row
+	 */
+	private static boolean or(long[] row, long[] other) {
+		boolean changed = false;
+		for (int k = 0; k < row.length; k++) {
+			long w = row[k] | other[k];
+			if (w != row[k]) {
+				row[k] = w;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private static void and(long[] row, long[] other) {
+		for (int k = 0; k < row.length; k++)
+			row[k] &= other[k];
+	}
+
+	private static void andNot(long[] row, long[] other) {
+		for (int k = 0; k < row.length; k++)
+			row[k] &= ~other[k];
+	}
+
+	/**
+	 * @return the first set bit at or after the index, or -1
+	 */
+	private static int next(long[] row, int from) {
+		int k = from >>> 6;
+		if (k >= row.length)
+			return -1;
+		long w = row[k] & (-1L << from);
+		while (true) {
+			if (w != 0)
+				return (k << 6) + Long.numberOfTrailingZeros(w);
+			if (++k == row.length)
+				return -1;
+			w = row[k];
+		}
+	}
+}
@@ -1694,108 +1694,17 @@ public class PDGGraph implements Serializable {
 	}
 
 	private void buildClosure() {
-		HashSet<PDGNode> doneNodes = new HashSet<PDGNode>();
-		for (PDGNode node : nodes)
-			if (!doneNodes.contains(node))
-				buildDataClosure(node, doneNodes);
-		buildSequentialClosure();
-		doneNodes.clear();
-		doneNodes = new HashSet<PDGNode>();
-		for (PDGNode node : nodes)
-			if (!doneNodes.contains(node))
-				buildControlClosure(node, doneNodes);
+		buildClosure(new PDGClosure(this));
 	}
 
-	public void buildSequentialClosure() {
-		HashMap<PDGNode, ArrayList<PDGNode>> preNodesOfNode = new HashMap<>();
-		preNodesOfNode.put(entryNode, new ArrayList<PDGNode>());
-		for (PDGNode node : nodes) {
-			if (node == entryNode || node instanceof PDGControlNode) {
-				HashMap<String, ArrayList<PDGNode>> branchNodes = new HashMap<>();
-				branchNodes.put("T", new ArrayList<PDGNode>());
-				branchNodes.put("F", new ArrayList<PDGNode>());
-				branchNodes.put("", new ArrayList<PDGNode>());
-				for (PDGEdge e : node.outEdges) {
-					if (e.target != endNode && e.target.control != null && e.target.astNodeType != ASTNode.ASSIGNMENT)
-						branchNodes.get(e.getLabel()).add(e.target);
-				}
-				for (String branch : branchNodes.keySet()) {
-					ArrayList<PDGNode> nodes = branchNodes.get(branch);
-					for (int i = 0; i < nodes.size(); i++) {
-						PDGNode n = nodes.get(i);
-						ArrayList<PDGNode> preNodes = new ArrayList<>();
-						for (int j = 0; j < i; j++)
-							preNodes.add(nodes.get(j));
-						preNodesOfNode.put(n, preNodes);
-					}
-				}
-			}
-		}
-		HashSet<PDGNode> doneNodes = new HashSet<>();
-		doneNodes.add(entryNode);
-		for (PDGNode node : preNodesOfNode.keySet()) {
-			if (!doneNodes.contains(node))
-				buildSequentialClosure(node, doneNodes, preNodesOfNode);
-		}
-		for (PDGNode node : preNodesOfNode.keySet()) {
-			if (node instanceof PDGActionNode) {
-				for (PDGNode preNode : preNodesOfNode.get(node)) {
-					if (preNode instanceof PDGActionNode && !node.hasInNode(preNode) && ((PDGActionNode) node).hasBackwardDataDependence((PDGActionNode) preNode))
-						new PDGDataEdge(preNode, node, Type.DEPENDENCE);
-				}
-			}
-		}
-	}
-
-	private void buildSequentialClosure(PDGNode node, HashSet<PDGNode> doneNodes, HashMap<PDGNode, ArrayList<PDGNode>> preNodesOfNode) {
-		if (!doneNodes.contains(node.control))
-			buildSequentialClosure(node.control, doneNodes, preNodesOfNode);
-		preNodesOfNode.get(node).addAll(preNodesOfNode.get(node.control));
-		doneNodes.add(node);
+	private void buildClosure(PDGClosure closure) {
+		closure.buildDataClosure();
+		closure.buildSequentialClosure();
+		closure.buildControlClosure();
 	}
 
-	private void buildDataClosure(PDGNode node, HashSet<PDGNode> doneNodes) {
-		if (node.getDefinitions().isEmpty() && !node.getInEdges().isEmpty()) {
-			HashSet<PDGEdge> sets = new HashSet<>(node.getInEdges());
-			for (PDGEdge e : sets) {
-				if (e instanceof PDGDataEdge) {
-					String label = e.getLabel();
-					ArrayList<PDGNode> inNodes = e.getSource().getDefinitions();
-					if (inNodes.isEmpty())
-						inNodes.add(e.getSource());
-					else
-						for (PDGNode inNode : inNodes)
-							if (!node.hasInEdge(inNode, label))
-								new PDGDataEdge(inNode, node, ((PDGDataEdge) e).type);
-					for (PDGNode inNode : inNodes) {
-						if (!doneNodes.contains(inNode))
-							buildDataClosure(inNode, doneNodes);
-						for (PDGEdge e1 : inNode.getInEdges()) {
-							if (e1 instanceof PDGDataEdge && !(e1.getSource() instanceof PDGDataNode)) {
-								if (!node.hasInEdge(e1.getSource(), label))
-									new PDGDataEdge(e1.getSource(), node, ((PDGDataEdge) e).type);
-							}
-						}
-					}
-				}
-			}
-		}
-		doneNodes.add(node);
-	}
-
-	private void buildControlClosure(PDGNode node, HashSet<PDGNode> doneNodes) {
-		for (PDGEdge e : new HashSet<PDGEdge>(node.getInEdges())) {
-			if (e instanceof PDGControlEdge) {
-				PDGNode inNode = e.getSource();
-				if (!doneNodes.contains(inNode))
-					buildControlClosure(inNode, doneNodes);
-				for (PDGEdge e1 : inNode.getInEdges()) {
-					if ((node instanceof PDGActionNode || node instanceof PDGControlNode) && !node.hasInEdge(e1))
-						new PDGControlEdge(e1.getSource(), node, e1.getLabel());
-				}
-			}
-		}
-		doneNodes.add(node);
+	public void buildSequentialClosure() {
+		new PDGClosure(this).buildSequentialClosure();
 	}
 
 	public void prune() {
@@ -2030,6 +1939,15 @@ public class PDGGraph implements Serializable {
 	}
 
 	public void buildChangeGraph(int version) {
+		buildChangeGraph(version, -1);
+	}
+
+	/**
+	 * @param hops if not negative, only the changed nodes and the nodes they
+	 * depend on within this many hops are closed, which leaves the change
+	 * graph the same when the hops cover its dependence chains
+	 */
+	public void buildChangeGraph(int version, int hops) {
 		addDefinitions();
 //		markChanges(entryNode.astNode);
 		for (PDGNode node : nodes) {
@@ -2050,7 +1968,10 @@ public class PDGGraph implements Serializable {
 			}
 		}
 		prune();
-		buildClosure();
+		if (hops < 0)
+			buildClosure();
+		else
+			buildClosure(new PDGClosure(this, changedNodes, hops));
 		cleanUp();
 		/*DotGraph dg = new DotGraph(this, false);
 		String dirPath = "D:/temp";
@@ -0,0 +1,129 @@
+package pdg.graph;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.FieldDeclaration;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+
+import utils.JavaASTUtil;
+
+/**
+ * Files of one commit parsed on first use, kept as an index of the field
+ * types of their top level types. One cache is shared by all the
+ * {@link PDGBuildingContext}s built for a commit, so each referenced file is
+ * read and parsed at most once however many methods look into it.
+ *
+ * Not thread safe; a commit is processed by one thread at a time.
+ */
+public class ParsedFileCache {
+	private static final FileDeclarations EMPTY = new FileDeclarations(null);
+
+	private Repository repository;
+	private RevCommit revCommit;
+	private HashMap<String, FileDeclarations> files = new HashMap<>();
+
+	public ParsedFileCache(Repository repository, RevCommit commit) {
+		this.repository = repository;
+		this.revCommit = commit;
+	}
+
+	public Repository getRepository() {
+		return repository;
+	}
+
+	public RevCommit getRevCommit() {
+		return revCommit;
+	}
+
+	/**
+	 * @return the declarations of the file at the given path in this commit,
+	 * empty if the file does not exist or cannot be read
+	 */
+	public FileDeclarations get(String path) {
+		FileDeclarations decls = files.get(path);
+		if (decls == null) {
+			decls = parse(path);
+			files.put(path, decls);
+		}
+		return decls;
+	}
+
+	private FileDeclarations parse(String path) {
+		if (repository == null || revCommit == null)
+			return EMPTY;
+		String content = null;
+		try (TreeWalk treeWalk = TreeWalk.forPath(repository, path, revCommit.getTree())) {
+			if (treeWalk == null)
+				return EMPTY;
+			ObjectLoader ldr = repository.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB);
+			content = new String(ldr.getCachedBytes());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return EMPTY;
+		}
+		@SuppressWarnings("rawtypes")
+		Map options = JavaCore.getOptions();
+		options.put(JavaCore.COMPILER_COMPLIANCE, JavaCore.VERSION_1_7);
+		options.put(JavaCore.COMPILER_CODEGEN_TARGET_PLATFORM, JavaCore.VERSION_1_7);
+		options.put(JavaCore.COMPILER_SOURCE, JavaCore.VERSION_1_7);
+		ASTParser parser = ASTParser.newParser(AST.JLS4);
+		parser.setSource(content.toCharArray());
+		parser.setCompilerOptions(options);
+		ASTNode ast = parser.createAST(null);
+		if (ast instanceof CompilationUnit)
+			return new FileDeclarations((CompilationUnit) ast);
+		return EMPTY;
+	}
+
+	public static class FileDeclarations {
+		private HashMap<String, HashMap<String, String>> fieldTypes = new HashMap<>();
+
+		private FileDeclarations(CompilationUnit cu) {
+			if (cu == null)
+				return;
+			for (int i = 0; i < cu.types().size(); i++) {
+				if (cu.types().get(i) instanceof TypeDeclaration)
+					index((TypeDeclaration) cu.types().get(i));
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void index(TypeDeclaration td) {
+			String name = td.getName().getIdentifier();
+			// the first top level declaration wins, as the old linear lookup did
+			if (fieldTypes.containsKey(name))
+				return;
+			HashMap<String, String> fts = new HashMap<>();
+			for (FieldDeclaration f : td.getFields()) {
+				String type = JavaASTUtil.getSimpleType(f.getType());
+				for (VariableDeclarationFragment vdf : (List<VariableDeclarationFragment>) f.fragments()) {
+					String field = vdf.getName().getIdentifier();
+					if (!fts.containsKey(field))
+						fts.put(field, type);
+				}
+			}
+			fieldTypes.put(name, fts);
+		}
+
+		/**
+		 * @return field name to simple type name of the given top level type, or null
+		 */
+		public HashMap<String, String> getFieldTypes(String type) {
+			return fieldTypes.get(type);
+		}
+	}
+}
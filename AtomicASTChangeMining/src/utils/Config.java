@@ -12,4 +12,8 @@ public class Config {
 	public static final String SCMiner_SUBJECT_FEATURE_ROOT_PATH = SCMiner_SUBJECT_SYSTEM_ROOT_PATH + "\\features";
 	public static String outputDirPath = "D:/Subject systems/output";
 	public static final int MAX_EXTRACTED_COMMITS = Integer.MAX_VALUE;
+	// dependence hops closed around the changed nodes of a method, -1 closes the whole PDG
+	public static int changeNeighborhoodHops = -1;
+	// bytes after which a change graph segment file is sealed and a new one started
+	public static long segmentSize = 64L << 20;
 }
@@ -7,9 +7,40 @@ public class ChangeGraph implements Serializable {
 	private static final long serialVersionUID = -874502848659906533L;
 	
 	private HashSet<ChangeNode> nodes = new HashSet<>();
+	private int normalization = 0;
 
 	public HashSet<ChangeNode> getNodes() {
 		return nodes;
 	}
 
+	/**
+	 * @return 0 for a graph as extracted, otherwise the version of the
+	 * normalization it went through
+	 */
+	public int getNormalization() {
+		return normalization;
+	}
+
+	public void setNormalization(int normalization) {
+		this.normalization = normalization;
+	}
+
+	public ChangeNode addNode(int astNodeType, int changeType, int version, String type, String label, String dataType, int[] starts, int[] lengths) {
+		ChangeNode node = new ChangeNode();
+		node.astNodeType = astNodeType;
+		node.changeType = changeType;
+		node.version = version;
+		node.type = type;
+		node.label = label;
+		node.dataType = dataType;
+		node.starts = starts;
+		node.lengths = lengths;
+		nodes.add(node);
+		return node;
+	}
+
+	public void addEdge(ChangeNode source, ChangeNode target, String label) {
+		new ChangeEdge(source, target, label);
+	}
+
 }
@@ -13,13 +13,13 @@ public class ChangeNode implements Serializable {
 	public static final int STATUS_ADDED = 5;
 	public static final int STATUS_MOVED = 6;
 	
-	private int astNodeType;
-	private int changeType = -1;
-	private int version = -1;
-	private int[] starts, lengths;
-	private String type, label;
-	private String dataType, dataName;
-	private ArrayList<ChangeEdge> inEdges = new ArrayList<>(), outEdges = new ArrayList<>();
+	int astNodeType;
+	int changeType = -1;
+	int version = -1;
+	int[] starts, lengths;
+	String type, label;
+	String dataType, dataName;
+	ArrayList<ChangeEdge> inEdges = new ArrayList<>(), outEdges = new ArrayList<>();
 	
 	public int getAstNodeType() {
 		return astNodeType;
@@ -0,0 +1,259 @@
+package change;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Memory mapped reader of a segment file, which holds the change graphs of
+ * many commits of one repository appended one after another.
+ *
+ * <pre>
+ * "CGSG" version(1 byte)
+ * records, each: commit name length(2) and UTF-8 bytes, raw length(4),
+ *   compressed length(4), CRC32 of the compressed bytes(4), then the
+ *   Deflate compressed {@link ChangeGraphIO} bytes of the commit
+ * index, written when the segment is sealed: per record the commit name
+ *   length(2) and bytes and the record offset(8)
+ * trailer: index offset(8), number of records(4), "CGIX"
+ * </pre>
+ *
+ * A sealed segment is read through its index. A segment without a valid
+ * trailer was cut off while being written; its records are scanned from the
+ * start and the scan stops at the first one that is incomplete or fails its
+ * checksum, so everything before the cut can still be read.
+ *
+ * Segments are written by the extractor, which also has a copy of this class.
+ */
+public class SegmentReader implements Closeable {
+	public static final String EXTENSION = ".cgs";
+	static final byte[] MAGIC = {'C', 'G', 'S', 'G'}, INDEX_MAGIC = {'C', 'G', 'I', 'X'};
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = MAGIC.length + 1, TRAILER_SIZE = 8 + 4 + INDEX_MAGIC.length;
+
+	private File file;
+	private RandomAccessFile raf;
+	private MappedByteBuffer buffer;
+	private LinkedHashMap<String, Integer> offsets = new LinkedHashMap<>();
+	private int validLength;
+	private boolean sealed;
+
+	public SegmentReader(File file) throws IOException {
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "r");
+		long length = raf.length();
+		if (length > Integer.MAX_VALUE) {
+			raf.close();
+			throw new IOException(file + " is too large to map");
+		}
+		this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		if (length < HEADER_SIZE || !matches(buffer, 0, MAGIC)) {
+			raf.close();
+			throw new IOException(file + " is not a segment file");
+		}
+		if (buffer.get(MAGIC.length) != VERSION) {
+			raf.close();
+			throw new IOException(file + " has unsupported segment version " + buffer.get(MAGIC.length));
+		}
+		this.sealed = readIndex();
+		if (!sealed)
+			scan();
+	}
+
+	/**
+	 * @return the segment files of a directory in the order they were written
+	 */
+	public static File[] listSegments(File dir) {
+		File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File f) {
+				return f.isFile() && isSegment(f.getName());
+			}
+		});
+		if (files == null)
+			return new File[0];
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return f1.getName().compareTo(f2.getName());
+			}
+		});
+		return files;
+	}
+
+	public static boolean isSegment(String name) {
+		return name.endsWith(EXTENSION);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean isSealed() {
+		return sealed;
+	}
+
+	/**
+	 * @return the length of the header and the intact records, where an
+	 * unsealed segment can be truncated and appended to
+	 */
+	public int getValidLength() {
+		return validLength;
+	}
+
+	/**
+	 * @return the commits in this segment in the order they were written
+	 */
+	public Set<String> getCommits() {
+		return offsets.keySet();
+	}
+
+	public boolean contains(String commit) {
+		return offsets.containsKey(commit);
+	}
+
+	int getOffset(String commit) {
+		return offsets.get(commit);
+	}
+
+	/**
+	 * @return the change graphs of the commit, or null if the commit is not
+	 * in this segment or its record cannot be decoded
+	 */
+	public HashMap<String, HashMap<String, ChangeGraph>> read(String commit) {
+		Integer offset = offsets.get(commit);
+		if (offset == null)
+			return null;
+		try {
+			return ChangeGraphIO.fromBytes(readRecord(offset));
+		} catch (DataFormatException | RuntimeException e) {
+			System.err.println(file + " " + commit + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private byte[] readRecord(int offset) throws DataFormatException {
+		ByteBuffer b = buffer.duplicate();
+		b.position(offset);
+		b.position(offset + 2 + (b.getShort() & 0xFFFF));
+		int rawLength = b.getInt(), compressedLength = b.getInt();
+		long checksum = b.getInt() & 0xFFFFFFFFL;
+		byte[] compressed = new byte[compressedLength];
+		b.get(compressed);
+		CRC32 crc = new CRC32();
+		crc.update(compressed, 0, compressedLength);
+		if (crc.getValue() != checksum)
+			throw new DataFormatException("Checksum mismatch");
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] raw = new byte[rawLength];
+			int n = 0;
+			while (n < rawLength && !inflater.finished()) {
+				int k = inflater.inflate(raw, n, rawLength - n);
+				if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += k;
+			}
+			if (n != rawLength)
+				throw new DataFormatException("Truncated record");
+			return raw;
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private boolean readIndex() {
+		int length = buffer.capacity();
+		if (length < HEADER_SIZE + TRAILER_SIZE || !matches(buffer, length - INDEX_MAGIC.length, INDEX_MAGIC))
+			return false;
+		ByteBuffer b = buffer.duplicate();
+		b.position(length - TRAILER_SIZE);
+		long indexOffset = b.getLong();
+		int count = b.getInt();
+		if (indexOffset < HEADER_SIZE || indexOffset > length - TRAILER_SIZE || count < 0)
+			return false;
+		b.position((int) indexOffset);
+		try {
+			for (int i = 0; i < count; i++) {
+				String commit = readName(b);
+				long offset = b.getLong();
+				if (offset < HEADER_SIZE || offset >= indexOffset)
+					return false;
+				offsets.put(commit, (int) offset);
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			offsets.clear();
+			return false;
+		}
+		if (b.position() != length - TRAILER_SIZE) {
+			offsets.clear();
+			return false;
+		}
+		validLength = (int) indexOffset;
+		return true;
+	}
+
+	private void scan() {
+		int length = buffer.capacity();
+		ByteBuffer b = buffer.duplicate();
+		int offset = HEADER_SIZE;
+		CRC32 crc = new CRC32();
+		while (true) {
+			try {
+				b.position(offset);
+				String commit = readName(b);
+				b.getInt();
+				int compressedLength = b.getInt();
+				long checksum = b.getInt() & 0xFFFFFFFFL;
+				if (compressedLength < 0 || compressedLength > length - b.position())
+					break;
+				byte[] compressed = new byte[compressedLength];
+				b.get(compressed);
+				crc.reset();
+				crc.update(compressed, 0, compressedLength);
+				if (crc.getValue() != checksum)
+					break;
+				offsets.put(commit, offset);
+				offset = b.position();
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				break;
+			}
+		}
+		validLength = offset;
+	}
+
+	private static String readName(ByteBuffer b) {
+		int length = b.getShort() & 0xFFFF;
+		byte[] bytes = new byte[length];
+		b.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static boolean matches(ByteBuffer b, int offset, byte[] magic) {
+		for (int i = 0; i < magic.length; i++)
+			if (b.get(offset + i) != magic[i])
+				return false;
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		raf.close();
+	}
+}
@@ -1,12 +1,21 @@
 package exas;
 
-import groum.GROUMNode;
+import groum.LabelDictionary;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
+/**
+ * Exas features of a fragment: the paths of up to four nodes in it, each
+ * encoded in a long of 16 bits per node. The first node takes the low 13 bits
+ * of its field for its feature; every later node takes them too, with the
+ * feature of the edge leading to it in the top 3. Node features start at 1, so
+ * paths of different lengths never share a code, and are below 8192 as
+ * fragments are far smaller. A path of one node is coded by its feature and
+ * grows one node at a time at either end as the paths are enumerated.
+ */
 public class ExasFeature {
 	public static final int MAX_LENGTH = 4 * 2 - 1;
+	private static final int NODE_BITS = 13, STEP_BITS = 16;
 	private static HashMap<String, Integer> edgeFeatures = new HashMap<>();
 	static {
 		edgeFeatures.put("_qual_", 0);
@@ -18,42 +27,64 @@ public class ExasFeature {
 		edgeFeatures.put("_recv_", 6);
 		edgeFeatures.put("_ref_", 7);
 	}
+	private static final int[] edgeLabelIds = new int[edgeFeatures.size()];
+	static {
+		for (String label : edgeFeatures.keySet())
+			edgeLabelIds[edgeFeatures.get(label)] = LabelDictionary.getId(label);
+	}
 	
-	private HashMap<String, Integer> nodeFeatures = new HashMap<>();
+	private int[] labelIds;
+	private int size;
 	
-	public ExasFeature(ArrayList<GROUMNode> nodes) {
-		for (int i = 0; i < nodes.size(); i++)
-			nodeFeatures.put(nodes.get(i).getLabel(), i + 1);
+	/**
+	 * @param labelIds label ids of the nodes of a fragment in the order they
+	 * were added, of which the first size count
+	 */
+	public ExasFeature(int[] labelIds, int size) {
+		this.labelIds = labelIds;
+		this.size = size;
 	}
 
-	private int getNodeFeature(String label) {
-		return nodeFeatures.get(label);
-	}
-	
-	private int getEdgeFeature(String label) {
+	public static int getEdgeFeature(String label) {
 		Integer id = edgeFeatures.get(label);
 		if (id != null)
 			return id;
 		return 0;
 	}
+
+	/**
+	 * @return the feature of an edge label given by its dictionary id
+	 */
+	public static int getEdgeFeature(int labelId) {
+		for (int i = 0; i < edgeLabelIds.length; i++)
+			if (edgeLabelIds[i] == labelId)
+				return i;
+		return 0;
+	}
 	
-	public int getFeature(ArrayList<String> labels) {
-		int f = 0, s;
-		for (int i = 0; i < labels.size(); i++) {
-			if (i % 2 == 0) {
-				s = getNodeFeature(labels.get(i));
-			}
-			else {
-				s = getEdgeFeature(labels.get(i));
-				s = s << 5;
-				f = f << 8;
-			}
-			f += s;
-		}
-		return f;
+	/**
+	 * @return the code of the path extended at its end by an edge and a node
+	 */
+	public static long append(long code, int edgeFeature, int nodeFeature) {
+		return code << STEP_BITS | (long) edgeFeature << NODE_BITS | nodeFeature;
 	}
 
-	public int getFeature(String label) {
-		return getNodeFeature(label);
+	/**
+	 * @return the code of the path of the given number of nodes extended at
+	 * its start by a node and an edge
+	 */
+	public static long prepend(long code, int length, int nodeFeature, int edgeFeature) {
+		return code | (long) edgeFeature << (NODE_BITS + STEP_BITS * (length - 1)) | (long) nodeFeature << (STEP_BITS * length);
+	}
+
+	/**
+	 * @return one plus the position of the last node with the label, the
+	 * feature of the node in paths
+	 */
+	public int getNodeFeature(int labelId) {
+		for (int i = size - 1; i >= 0; i--)
+			if (labelIds[i] == labelId)
+				return i + 1;
+		return 0;
 	}
 }
@@ -5,6 +5,7 @@ import mining.Fragment;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.jdt.core.dom.ASTNode;
 
@@ -14,22 +15,34 @@ import change.ChangeNode;
 
 
 public class GROUMGraph {
-	public static int nextId = 1;
-	private int id, patternId = -1;
+	/**
+	 * Version of {@link #normalize}, stored with normalized change graphs.
+	 * Bump it when the normalization changes so graphs normalized by an older
+	 * one are not taken as current.
+	 */
+	public static final int NORMALIZATION = 1;
+	// graphs are built by extractions of miners running at the same time
+	private static final AtomicInteger nextId = new AtomicInteger(1);
+	private int id, patternId = -1, storeId = -1;
 	private String project, name;
+	private boolean normalized = false;
 	private HashSet<GROUMNode> nodes = new HashSet<GROUMNode>();
+	private GROUMNode[] frozenNodes;
+	private int[] outOffsets, outNeighbors, outLabels, inOffsets, inNeighbors, inLabels, mappedNodes;
+	private long[] coreActions;
 	
 	public GROUMGraph() {
-		this.id = nextId++;
+		this.id = nextId.getAndIncrement();
 	}
 	
 	public GROUMGraph(ChangeGraph pdg, String name) {
 		this.name = name;
+		this.normalized = pdg.getNormalization() == NORMALIZATION;
 		HashSet<ChangeNode> changedNodes = pdg.getNodes();
 		if (changedNodes.isEmpty()) return;
 		HashMap<ChangeNode, GROUMNode> map = new HashMap<>();
 		for (ChangeNode node : changedNodes) {
-			GROUMNode cn = new GROUMNode(node);
+			GROUMNode cn = new GROUMNode(node, normalized);
 			cn.setGraph(this);
 			map.put(node, cn);
 			nodes.add(cn);
@@ -73,6 +86,158 @@ public class GROUMGraph {
 
 	public void delete(GROUMNode node) {
 		nodes.remove(node);
+		frozenNodes = null;
+	}
+
+	/**
+	 * Numbers the nodes and lays out their edges in compressed sparse rows:
+	 * the out edges of node i are the entries outOffsets[i] to
+	 * outOffsets[i + 1] - 1 of outNeighbors and outLabels, holding the index
+	 * of the target and the dictionary id of the edge label, and likewise for
+	 * in edges. Mining walks these arrays instead of building neighbor sets.
+	 * The edges must not change afterwards; deleting a node thaws the graph.
+	 */
+	public void freeze() {
+		if (frozenNodes != null)
+			return;
+		freeze(nodes.toArray(new GROUMNode[nodes.size()]));
+	}
+
+	/**
+	 * Freezes the graph with its nodes numbered in the given order.
+	 */
+	void freeze(GROUMNode[] ns) {
+		int numOfEdges = 0;
+		for (int i = 0; i < ns.length; i++) {
+			ns[i].setIndex(i);
+			numOfEdges += ns[i].getOutEdges().size();
+		}
+		outOffsets = new int[ns.length + 1];
+		outNeighbors = new int[numOfEdges];
+		outLabels = new int[numOfEdges];
+		inOffsets = new int[ns.length + 1];
+		inNeighbors = new int[numOfEdges];
+		inLabels = new int[numOfEdges];
+		mappedNodes = new int[ns.length];
+		coreActions = new long[(ns.length + 63) >>> 6];
+		int o = 0, in = 0;
+		for (int i = 0; i < ns.length; i++) {
+			outOffsets[i] = o;
+			for (GROUMEdge e : ns[i].getOutEdges()) {
+				outNeighbors[o] = e.getDest().getIndex();
+				outLabels[o++] = LabelDictionary.getId(e.getLabel());
+			}
+			inOffsets[i] = in;
+			for (GROUMEdge e : ns[i].getInEdges()) {
+				inNeighbors[in] = e.getSrc().getIndex();
+				inLabels[in++] = LabelDictionary.getId(e.getLabel());
+			}
+			GROUMNode mappedNode = ns[i].getMappedNode();
+			mappedNodes[i] = mappedNode == null ? -1 : mappedNode.getIndex();
+			if (ns[i].isCoreAction())
+				coreActions[i >>> 6] |= 1L << i;
+		}
+		outOffsets[ns.length] = o;
+		inOffsets[ns.length] = in;
+		frozenNodes = ns;
+	}
+
+	public boolean isFrozen() {
+		return frozenNodes != null;
+	}
+
+	public GROUMNode getNode(int index) {
+		return frozenNodes[index];
+	}
+
+	public int[] getOutOffsets() {
+		return outOffsets;
+	}
+
+	public int[] getOutNeighbors() {
+		return outNeighbors;
+	}
+
+	public int[] getOutLabels() {
+		return outLabels;
+	}
+
+	public int[] getInOffsets() {
+		return inOffsets;
+	}
+
+	public int[] getInNeighbors() {
+		return inNeighbors;
+	}
+
+	public int[] getInLabels() {
+		return inLabels;
+	}
+
+	/**
+	 * @return the core action nodes as a bitset over the node indices
+	 */
+	public long[] getCoreActions() {
+		return coreActions;
+	}
+
+	/**
+	 * @return the index of the node mapped to the node, -1 if there is none
+	 */
+	public int getMappedNode(int index) {
+		return mappedNodes[index];
+	}
+
+	/**
+	 * Prunes double mapping edges, deletes assignment nodes and collapses
+	 * literals, once.
+	 */
+	public void normalize() {
+		if (normalized)
+			return;
+		pruneDoubleEdges();
+		deleteAssignmentNodes();
+		//deleteUnaryOperationNodes();
+		collapseLiterals();
+		normalized = true;
+	}
+
+	public boolean isNormalized() {
+		return normalized;
+	}
+
+	/**
+	 * Marks a graph built from nodes that were stored normalized.
+	 */
+	void setNormalized() {
+		normalized = true;
+	}
+
+	/**
+	 * @return a change graph holding the labels of this normalized graph,
+	 * which is read back as the same graph without normalizing it again
+	 */
+	public ChangeGraph toChangeGraph() {
+		if (!normalized)
+			throw new IllegalStateException("Graph " + name + " is not normalized");
+		ChangeGraph cg = new ChangeGraph();
+		cg.setNormalization(NORMALIZATION);
+		HashMap<GROUMNode, ChangeNode> map = new HashMap<>();
+		for (GROUMNode node : nodes) {
+			String type = null;
+			if (node.getType() == GROUMNode.TYPE_ACTION)
+				type = "a";
+			else if (node.getType() == GROUMNode.TYPE_CONTROL)
+				type = "c";
+			else if (node.getType() == GROUMNode.TYPE_FIELD)
+				type = "d";
+			map.put(node, cg.addNode(node.getAstType(), node.getChangeType(), node.getVersion(), type, node.getLabel(), node.getDataType(),
+					node.getStarts(), node.getLengths()));
+		}
+		for (GROUMNode node : nodes)
+			for (GROUMEdge e : node.getInEdges())
+				cg.addEdge(map.get(e.getSrc()), map.get(node), e.getLabel());
+		return cg;
 	}
 
 	public void deleteAssignmentNodes() {
@@ -154,6 +319,18 @@ public class GROUMGraph {
 		this.id = index;
 	}
 
+	/**
+	 * @return the id of the graph in the {@link GraphStore} it was built
+	 * from, -1 if it is not from one
+	 */
+	public int getStoreId() {
+		return storeId;
+	}
+
+	void setStoreId(int storeId) {
+		this.storeId = storeId;
+	}
+
 	public int getPatternId() {
 		return patternId;
 	}
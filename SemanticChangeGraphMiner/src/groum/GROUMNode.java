@@ -18,7 +18,6 @@ public class GROUMNode {
 	public static final int TYPE_SINGLE = 1;
 	public static final int TYPE_MULTIPLE = 2;
 	public static final int TYPE_LOOP = 3;
-	public static int numOfNodes = 0;
 	private static HashSet<Character> invocationTypes = new HashSet<>(), controlTypes = new HashSet<>(), literalTypes = new HashSet<>();
 	private static HashMap<String, Character> infixExpressionLables = new HashMap<>();
 	static {
@@ -80,8 +79,9 @@ public class GROUMNode {
 		infixExpressionLables.put(InfixExpression.Operator.RIGHT_SHIFT_UNSIGNED.toString(), 's');
 	}
 	
-	private int id;
+	private int id, index = -1;
 	private String label;
+	private int labelId;
 	private HashSet<Integer> parameters;
 	private int type = TYPE_OTHER, changeType = -1, version = -1;
 	private char astType = 0;
@@ -92,6 +92,14 @@ public class GROUMNode {
 	private HashSet<GROUMEdge> outEdges = new HashSet<GROUMEdge>();
 
 	public GROUMNode(ChangeNode node) {
+		this(node, false);
+	}
+
+	/**
+	 * @param normalized true if the change node comes from a normalized graph
+	 * and already holds the label of this node
+	 */
+	public GROUMNode(ChangeNode node, boolean normalized) {
 		this.changeType = node.getChangeType();
 		this.version = node.getVersion();
 		this.astType = (char) node.getAstNodeType();
@@ -100,42 +108,47 @@ public class GROUMNode {
 		if (node.getLengths() != null)
 			this.lengths = Arrays.copyOf(node.getLengths(), node.getLengths().length);
 		this.dataType = node.getDataType();
-		this.label = String.valueOf(this.astType);;
+		setLabel(normalized ? node.getLabel() : toLabel(this.astType, node.getType(), node.getLabel()));
 		/*if (node.getAstNodeType() == ASTNode.ARRAY_ACCESS) {
 			this.type = TYPE_ACTION;
-			this.label = "[]";
 		} else if(node.getAstNodeType() == ASTNode.FIELD_ACCESS || node.getAstNodeType() == ASTNode.QUALIFIED_NAME) {
 			this.type = TYPE_ACTION;
-		} else */if (node.getType().equals("a")) {
+		} else */if ("a".equals(node.getType())) {
 			this.type = TYPE_ACTION;
-			if (isInvocation(this.astType))
-				this.label = node.getLabel();
-			else if (this.astType == ASTNode.INFIX_EXPRESSION) {
-				char cl = (char) (infixExpressionLables.get(node.getLabel()) + 128);
-				this.label = String.valueOf(cl);
-			} else {
-				this.label = node.getLabel();
-				if (this.label.length() == 1) {
-					char cl = (char) (label.charAt(0) + 128);
-					this.label = String.valueOf(cl);
-				} else
-					System.err.print("");
-			}
-		} else if (node.getType().equals("c")) {
+		} else if ("c".equals(node.getType())) {
 			this.type = TYPE_CONTROL;
-		} else if (node.getType().equals("d")) {
+		} else if ("d".equals(node.getType())) {
 			this.type = TYPE_FIELD;
-			if (!isLiteral()) {
+			if (!isLiteral())
 				this.astType = ASTNode.SIMPLE_NAME;
-				this.label = String.valueOf(this.astType);
-			}
 		}
 	}
+
+	/**
+	 * @return the label of a node built from a change node with the given AST
+	 * node type, node type and label
+	 */
+	public static String toLabel(char astType, String type, String label) {
+		if (type.equals("a")) {
+			if (isInvocation(astType))
+				return label;
+			if (astType == ASTNode.INFIX_EXPRESSION)
+				return String.valueOf((char) (infixExpressionLables.get(label) + 128));
+			if (label.length() == 1)
+				return String.valueOf((char) (label.charAt(0) + 128));
+			return label;
+		} else if (type.equals("d")) {
+			if (!literalTypes.contains(astType))
+				return String.valueOf((char) ASTNode.SIMPLE_NAME);
+		}
+		return String.valueOf(astType);
+	}
 	
 	public GROUMNode(GROUMNode node) {
 		this.astType = node.astType;
 		this.changeType = node.changeType;
 		this.label = node.label;
+		this.labelId = node.labelId;
 		this.type = node.type;
 		this.version = node.version;
 		this.dataName = node.dataName;
@@ -146,13 +159,24 @@ public class GROUMNode {
 			this.lengths = Arrays.copyOf(node.lengths, node.lengths.length);
 	}
 
+	GROUMNode(String label, int type, char astType, int version, int changeType, String dataType, int[] starts, int[] lengths) {
+		setLabel(label);
+		this.type = type;
+		this.astType = astType;
+		this.version = version;
+		this.changeType = changeType;
+		this.dataType = dataType;
+		this.starts = starts;
+		this.lengths = lengths;
+	}
+
 	public GROUMNode(String id, int version, HashMap<String, String> attributes) {
 		this.version = version;
 		if (version == 0)
 			this.changeType = -1;
 		else 
 			this.changeType = 1;
-		this.label = attributes.get("label");
+		setLabel(attributes.get("label"));
 		switch (attributes.get("shape")) {
 		case "box": this.type = TYPE_ACTION; break;
 		case "diamond": this.type = TYPE_CONTROL; break;
@@ -179,13 +203,30 @@ public class GROUMNode {
 	public int getId() {
 		return id;
 	}
+
+	/**
+	 * @return the number of this node in its frozen graph, -1 if the graph is
+	 * not frozen
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	void setIndex(int index) {
+		this.index = index;
+	}
 	
 	public String getLabel() {
 		return label;
 	}
 
+	public int getLabelId() {
+		return labelId;
+	}
+
 	public void setLabel(String label) {
-		this.label = label;
+		this.labelId = LabelDictionary.getId(label);
+		this.label = LabelDictionary.getLabel(labelId);
 	}
 
 	public int getType() {
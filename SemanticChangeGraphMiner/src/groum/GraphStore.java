@@ -0,0 +1,383 @@
+package groum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk backed store of frozen GROUM graphs, for corpora whose graphs do not
+ * fit on the heap together. Graphs are numbered in the order they are added
+ * and kept as int arrays in a memory mapped file, so the nodes of all graphs
+ * can be scanned without building them. A graph is only built when it is
+ * asked for, and the most recently used ones are cached.
+ *
+ * A graph stays the same instance as long as anything refers to it, as
+ * fragments do, and is only built again once it has been collected and
+ * dropped from the cache. Fragments of patterns kept in a lattice only hold
+ * the id of their graph, so the graphs on the heap are those of the cache
+ * plus those of the fragments of the seeds growing at the time: at most
+ * the cache size plus, per growing seed, the graphs its current pattern
+ * and the extensions being grouped are from. A seed frequent in most of the
+ * graphs can still have most of them built at once.
+ *
+ * <pre>
+ * graphs.bin, per graph, all ints:
+ *   node count, edge count, name, project, 1 if normalized else 0
+ *   per node: label, type, AST node type, version, change type, data type,
+ *     mapped node (-1 for none), position offset (-1 for none)
+ *   out offsets (node count + 1), out neighbors, out edge labels
+ *   in offsets (node count + 1), in neighbors, in edge labels
+ *   position count, then per node with positions: count, starts, lengths
+ * graphs.idx: magic, version, graph count, then the offset of each graph (8)
+ * strings.bin: string count, then per string its UTF-8 byte count and bytes;
+ *   names, projects and labels above are ids into them, -1 for null
+ * </pre>
+ *
+ * Nodes are numbered as in the frozen graph, so node and graph ids together
+ * name a node of the corpus. No graph spans two mapped chunks.
+ */
+public class GraphStore implements Closeable {
+	public static final String DATA_FILE = "graphs.bin", INDEX_FILE = "graphs.idx", STRINGS_FILE = "strings.bin";
+	private static final int MAGIC = 0x43475354, VERSION = 2;
+	private static final long CHUNK_SIZE = 1L << 30;
+	private static final int HEADER_BYTES = 20, NODE_BYTES = 32;
+
+	private FileChannel channel;
+	private MappedByteBuffer[] chunks;
+	private long[] offsets;
+	private String[] strings;
+	private int[] labelIds;
+	private LinkedHashMap<Integer, GROUMGraph> cache;
+	private HashMap<Integer, GraphReference> graphs = new HashMap<>();
+	private ReferenceQueue<GROUMGraph> collected = new ReferenceQueue<>();
+	private int numOfBuilds = 0, numOfHits = 0;
+
+	/**
+	 * @param cacheSize the number of built graphs kept after they are no
+	 * longer used
+	 */
+	public GraphStore(File dir, final int cacheSize) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(dir, INDEX_FILE))))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException(dir + " is not a graph store");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException(dir + " has unsupported graph store version " + version);
+			offsets = new long[in.readInt()];
+			for (int i = 0; i < offsets.length; i++)
+				offsets[i] = in.readLong();
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(dir, STRINGS_FILE))))) {
+			strings = new String[in.readInt()];
+			labelIds = new int[strings.length];
+			for (int i = 0; i < strings.length; i++) {
+				strings[i] = readString(in);
+				labelIds[i] = -1;
+			}
+		}
+		channel = FileChannel.open(new File(dir, DATA_FILE).toPath(), StandardOpenOption.READ);
+		long size = channel.size();
+		chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+		for (int i = 0; i < chunks.length; i++)
+			chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, i * CHUNK_SIZE, Math.min(CHUNK_SIZE, size - i * CHUNK_SIZE));
+		cache = new LinkedHashMap<Integer, GROUMGraph>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, GROUMGraph> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	public int getNumOfGraphs() {
+		return offsets.length;
+	}
+
+	public int getNumOfNodes(int graph) {
+		return chunk(graph).getInt(position(graph));
+	}
+
+	public int getVersion(int graph, int node) {
+		return nodeField(graph, node, 3);
+	}
+
+	/**
+	 * @return the {@link LabelDictionary} id of the label of the node
+	 */
+	public int getLabelId(int graph, int node) {
+		int s = nodeField(graph, node, 0);
+		if (labelIds[s] < 0)
+			labelIds[s] = LabelDictionary.getId(strings[s]);
+		return labelIds[s];
+	}
+
+	/**
+	 * @return the node mapped to the node, -1 if there is none
+	 */
+	public int getMappedNode(int graph, int node) {
+		return nodeField(graph, node, 6);
+	}
+
+	private int nodeField(int graph, int node, int field) {
+		return chunk(graph).getInt(position(graph) + HEADER_BYTES + node * NODE_BYTES + field * 4);
+	}
+
+	private MappedByteBuffer chunk(int graph) {
+		return chunks[(int) (offsets[graph] / CHUNK_SIZE)];
+	}
+
+	private int position(int graph) {
+		return (int) (offsets[graph] % CHUNK_SIZE);
+	}
+
+	/**
+	 * Writes the UTF-8 bytes after their count, as labels of long literals
+	 * do not fit writeUTF.
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private String string(int id) {
+		return id < 0 ? null : strings[id];
+	}
+
+	/**
+	 * @return the frozen graph, built from the store if it is not in use or
+	 * cached
+	 */
+	public synchronized GROUMGraph get(int id) {
+		GROUMGraph g = cache.get(id);
+		if (g == null) {
+			expunge();
+			GraphReference r = graphs.get(id);
+			if (r != null)
+				g = r.get();
+			if (g == null) {
+				g = build(id);
+				graphs.put(id, new GraphReference(g, id, collected));
+				numOfBuilds++;
+			}
+			cache.put(id, g);
+		} else
+			numOfHits++;
+		return g;
+	}
+
+	private void expunge() {
+		GraphReference r;
+		while ((r = (GraphReference) collected.poll()) != null)
+			if (graphs.get(r.id) == r)
+				graphs.remove(r.id);
+	}
+
+	private GROUMGraph build(int id) {
+		MappedByteBuffer b = chunk(id);
+		int p = position(id);
+		int numOfNodes = b.getInt(p), numOfEdges = b.getInt(p + 4);
+		GROUMGraph g = new GROUMGraph();
+		g.setStoreId(id);
+		g.setName(string(b.getInt(p + 8)));
+		g.setProject(string(b.getInt(p + 12)));
+		if (b.getInt(p + 16) == 1)
+			g.setNormalized();
+		int nodesAt = p + HEADER_BYTES;
+		int outAt = nodesAt + numOfNodes * NODE_BYTES, inAt = outAt + (numOfNodes + 1 + 2 * numOfEdges) * 4;
+		int positionsAt = inAt + (numOfNodes + 1 + 2 * numOfEdges) * 4 + 4;
+		GROUMNode[] ns = new GROUMNode[numOfNodes];
+		for (int i = 0; i < numOfNodes; i++) {
+			int n = nodesAt + i * NODE_BYTES;
+			int[] starts = null, lengths = null;
+			int positionOffset = b.getInt(n + 28);
+			if (positionOffset >= 0) {
+				int q = positionsAt + positionOffset * 4, count = b.getInt(q);
+				starts = new int[count];
+				lengths = new int[count];
+				for (int k = 0; k < count; k++) {
+					starts[k] = b.getInt(q + 4 + k * 4);
+					lengths[k] = b.getInt(q + 4 + (count + k) * 4);
+				}
+			}
+			ns[i] = new GROUMNode(strings[b.getInt(n)], b.getInt(n + 4), (char) b.getInt(n + 8), b.getInt(n + 12), b.getInt(n + 16),
+					string(b.getInt(n + 20)), starts, lengths);
+			ns[i].setGraph(g);
+			g.getNodes().add(ns[i]);
+		}
+		int neighborsAt = outAt + (numOfNodes + 1) * 4, labelsAt = neighborsAt + numOfEdges * 4;
+		for (int i = 0; i < numOfNodes; i++) {
+			int end = b.getInt(outAt + (i + 1) * 4);
+			for (int k = b.getInt(outAt + i * 4); k < end; k++)
+				new GROUMEdge(ns[i], ns[b.getInt(neighborsAt + k * 4)], strings[b.getInt(labelsAt + k * 4)]);
+		}
+		g.freeze(ns);
+		return g;
+	}
+
+	/**
+	 * @return the number of graphs built and of graphs found in the cache
+	 */
+	public synchronized String getStatistics() {
+		return numOfBuilds + " graphs built, " + numOfHits + " cache hits, " + graphs.size() + " in use or cached";
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+		chunks = null;
+	}
+
+	private static class GraphReference extends WeakReference<GROUMGraph> {
+		private int id;
+
+		private GraphReference(GROUMGraph g, int id, ReferenceQueue<GROUMGraph> queue) {
+			super(g, queue);
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Appends graphs to a new store in a directory.
+	 */
+	public static class Writer implements Closeable {
+		private File dir;
+		private DataOutputStream out;
+		private long position = 0;
+		private ArrayList<Long> offsets = new ArrayList<>();
+		private HashMap<String, Integer> ids = new HashMap<>();
+		private ArrayList<String> strings = new ArrayList<>();
+
+		public Writer(File dir) throws IOException {
+			this.dir = dir;
+			dir.mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, DATA_FILE)), 1 << 16));
+		}
+
+		private int id(String s) {
+			if (s == null)
+				return -1;
+			Integer id = ids.get(s);
+			if (id == null) {
+				id = strings.size();
+				ids.put(s, id);
+				strings.add(s);
+			}
+			return id;
+		}
+
+		/**
+		 * Freezes the graph if it is not yet and appends it.
+		 *
+		 * @return the id of the graph in the store
+		 */
+		public synchronized int add(GROUMGraph g) throws IOException {
+			g.freeze();
+			int numOfNodes = g.getNodes().size(), numOfEdges = g.getOutOffsets()[numOfNodes];
+			GROUMNode[] ns = new GROUMNode[numOfNodes];
+			int numOfPositions = 0;
+			for (GROUMNode node : g.getNodes()) {
+				ns[node.getIndex()] = node;
+				if (node.getStarts() != null && node.getLengths() != null)
+					numOfPositions += 1 + 2 * node.getStarts().length;
+			}
+			long size = HEADER_BYTES + (long) numOfNodes * NODE_BYTES + 2L * (numOfNodes + 1 + 2 * numOfEdges) * 4 + 4 + numOfPositions * 4L;
+			if (size > CHUNK_SIZE)
+				throw new IOException("Graph " + g.getName() + " is too large for the store");
+			if (position / CHUNK_SIZE != (position + size - 1) / CHUNK_SIZE) {
+				while (position % CHUNK_SIZE != 0) {
+					out.write(0);
+					position++;
+				}
+			}
+			offsets.add(position);
+			out.writeInt(numOfNodes);
+			out.writeInt(numOfEdges);
+			out.writeInt(id(g.getName()));
+			out.writeInt(id(g.getProject()));
+			out.writeInt(g.isNormalized() ? 1 : 0);
+			int positionOffset = 0;
+			for (GROUMNode node : ns) {
+				out.writeInt(id(node.getLabel()));
+				out.writeInt(node.getType());
+				out.writeInt(node.getAstType());
+				out.writeInt(node.getVersion());
+				out.writeInt(node.getChangeType());
+				out.writeInt(id(node.getDataType()));
+				out.writeInt(g.getMappedNode(node.getIndex()));
+				if (node.getStarts() != null && node.getLengths() != null) {
+					out.writeInt(positionOffset);
+					positionOffset += 1 + 2 * node.getStarts().length;
+				} else
+					out.writeInt(-1);
+			}
+			writeRows(g.getOutOffsets(), g.getOutNeighbors(), g.getOutLabels());
+			writeRows(g.getInOffsets(), g.getInNeighbors(), g.getInLabels());
+			out.writeInt(numOfPositions);
+			for (GROUMNode node : ns) {
+				if (node.getStarts() != null && node.getLengths() != null) {
+					out.writeInt(node.getStarts().length);
+					for (int start : node.getStarts())
+						out.writeInt(start);
+					for (int i = 0; i < node.getStarts().length; i++)
+						out.writeInt(node.getLengths()[i]);
+				}
+			}
+			position += size;
+			return offsets.size() - 1;
+		}
+
+		private void writeRows(int[] rowOffsets, int[] neighbors, int[] labels) throws IOException {
+			for (int offset : rowOffsets)
+				out.writeInt(offset);
+			for (int neighbor : neighbors)
+				out.writeInt(neighbor);
+			for (int label : labels)
+				out.writeInt(id(LabelDictionary.getLabel(label)));
+		}
+
+		public synchronized int getNumOfGraphs() {
+			return offsets.size();
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			out.close();
+			try (DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, INDEX_FILE))))) {
+				index.writeInt(MAGIC);
+				index.writeInt(VERSION);
+				index.writeInt(offsets.size());
+				for (long offset : offsets)
+					index.writeLong(offset);
+			}
+			try (DataOutputStream s = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, STRINGS_FILE))))) {
+				s.writeInt(strings.size());
+				for (String string : strings)
+					writeString(s, string);
+			}
+		}
+	}
+}
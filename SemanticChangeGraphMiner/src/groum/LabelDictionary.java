@@ -0,0 +1,133 @@
+package groum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Corpus wide dictionary of node labels. Every label gets an int id the first
+ * time it is seen and nodes keep one shared copy of its string, so graphs
+ * loaded from different commits do not each hold their own copies and mining
+ * can group nodes by ints instead of hashing concatenated strings.
+ *
+ * Ids are handed out in the order labels are first seen and stay the same as
+ * long as the dictionary is saved and read back before the graphs are
+ * loaded. Lookups take no lock; only new labels do.
+ */
+public class LabelDictionary {
+	public static final String FILE_NAME = "labels.dict";
+	/**
+	 * Id of a missing label, e.g. the mapped node of an unmapped node in a
+	 * key.
+	 */
+	public static final int NONE = -1;
+	private static final int MAGIC = 0x43474c44, VERSION = 2;
+
+	private static ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+	private static volatile String[] labels = new String[1024];
+	private static int size = 0;
+
+	/**
+	 * @return the id of the label, which is added if it is new
+	 */
+	public static int getId(String label) {
+		Integer id = ids.get(label);
+		if (id != null)
+			return id;
+		return add(label);
+	}
+
+	private static synchronized int add(String label) {
+		Integer id = ids.get(label);
+		if (id != null)
+			return id;
+		String[] a = labels;
+		if (size == a.length)
+			a = Arrays.copyOf(a, size * 2);
+		a[size] = label;
+		// publish the label before its id so readers of the id find it
+		labels = a;
+		ids.put(label, size);
+		return size++;
+	}
+
+	public static String getLabel(int id) {
+		return labels[id];
+	}
+
+	public static synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return a long holding two ids, e.g. of a node and the node it is
+	 * mapped to
+	 */
+	public static long pack(int id1, int id2) {
+		return ((long) id1 << 32) | (id2 & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Adds the labels of a dictionary file in their order, so a dictionary
+	 * read before any graph is loaded keeps the ids it was saved with.
+	 *
+	 * @return the number of labels read
+	 */
+	public static int read(File file) {
+		if (!file.exists())
+			return 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a label dictionary");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException(file + " has unsupported label dictionary version " + version);
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				getId(new String(bytes, StandardCharsets.UTF_8));
+			}
+			return n;
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			return 0;
+		}
+	}
+
+	/**
+	 * Writes to a file of its own first, so runs saving the same dictionary
+	 * at the same time each replace it with a complete one.
+	 */
+	public static synchronized void write(File file) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		dir.mkdirs();
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(size);
+			for (int i = 0; i < size; i++) {
+				// labels of long literals do not fit writeUTF
+				byte[] bytes = labels[i].getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			tmp.delete();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package main;
+
+import java.io.File;
+import java.util.HashMap;
+
+import change.ChangeGraph;
+import change.ChangeGraphIO;
+
+/**
+ * Converts the serialized .dat change graph files under a directory to the
+ * binary format, next to the originals, and reports sizes and read times of
+ * both. Files that already have a binary counterpart are skipped.
+ *
+ * Usage: ConvertChangeGraphs dir [-delete]
+ */
+public class ConvertChangeGraphs {
+	private static int numOfFiles = 0, numOfFailures = 0;
+	private static long oldBytes = 0, newBytes = 0, oldReadTime = 0, newReadTime = 0;
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("Usage: ConvertChangeGraphs dir [-delete]");
+			return;
+		}
+		boolean delete = args.length > 1 && args[1].equals("-delete");
+		convert(new File(args[0]), delete);
+		System.out.println("Converted files: " + numOfFiles + " Failures: " + numOfFailures);
+		if (numOfFiles > 0) {
+			System.out.println(String.format("Size: %d -> %d bytes (%.1f%%)", oldBytes, newBytes, 100.0 * newBytes / oldBytes));
+			System.out.println(String.format("Read time: %d -> %d ms (%.1fx)", oldReadTime / 1000000, newReadTime / 1000000, (double) oldReadTime / Math.max(1, newReadTime)));
+		}
+	}
+
+	private static void convert(File file, boolean delete) {
+		if (file.isDirectory()) {
+			File[] subs = file.listFiles();
+			if (subs != null)
+				for (File sub : subs)
+					convert(sub, delete);
+			return;
+		}
+		String name = file.getName();
+		if (!name.endsWith(ChangeGraphIO.LEGACY_EXTENSION))
+			return;
+		File out = new File(file.getParentFile(), name.substring(0, name.length() - ChangeGraphIO.LEGACY_EXTENSION.length()) + ChangeGraphIO.EXTENSION);
+		if (out.exists())
+			return;
+		long start = System.nanoTime();
+		HashMap<String, HashMap<String, ChangeGraph>> changeGraphs = ChangeGraphIO.read(file);
+		long end = System.nanoTime();
+		if (changeGraphs == null) {
+			System.err.println("Cannot read " + file);
+			numOfFailures++;
+			return;
+		}
+		ChangeGraphIO.write(changeGraphs, out.getAbsolutePath());
+		long start2 = System.nanoTime();
+		if (ChangeGraphIO.read(out) == null) {
+			System.err.println("Cannot read back " + out);
+			out.delete();
+			numOfFailures++;
+			return;
+		}
+		newReadTime += System.nanoTime() - start2;
+		oldReadTime += end - start;
+		oldBytes += file.length();
+		newBytes += out.length();
+		numOfFiles++;
+		if (delete)
+			file.delete();
+	}
+}
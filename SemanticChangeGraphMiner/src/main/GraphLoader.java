@@ -0,0 +1,335 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import change.ChangeGraph;
+import change.ChangeGraphIO;
+import change.SegmentReader;
+import groum.GROUMGraph;
+import groum.GROUMNode;
+import mining.SeedIndex;
+import utils.FileIO;
+
+/**
+ * Reads the change graphs of a project on a pool of workers, which decode the
+ * change graph files and segment records, build the GROUM graphs, drop those
+ * of at most two nodes and normalize them for mining. Graphs are handed to the
+ * consumer through a bounded queue as they are built, so a slow consumer
+ * holds the workers back instead of letting decoded graphs pile up.
+ *
+ * Progress is printed every few seconds with the rates of files and graphs
+ * and an estimate of the heap the loaded graphs take.
+ */
+public class GraphLoader {
+	// rough sizes on a 64-bit VM with compressed references: a node with its two edge sets, an edge in both sets
+	private static final int NODE_BYTES = 360, EDGE_BYTES = 96;
+	private static final long REPORT_INTERVAL = 10000;
+
+	public interface Consumer {
+		void accept(GROUMGraph g);
+	}
+
+	private ExecutorService pool;
+	private int queueCapacity;
+
+	public GraphLoader(int numOfThreads, int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+		this.pool = Executors.newFixedThreadPool(numOfThreads, new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "graph-loader-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Loads the graphs of a project in the order they are stored, which is
+	 * the order a sequential read gives.
+	 */
+	public ArrayList<GROUMGraph> load(String changesPath, String projectName, SeedIndex seeds) {
+		final ArrayList<Loaded> loaded = new ArrayList<>();
+		new Run(changesPath, projectName, seeds).run(new Sink() {
+			@Override
+			public void accept(Loaded l) {
+				loaded.add(l);
+			}
+		});
+		Collections.sort(loaded, new Comparator<Loaded>() {
+			@Override
+			public int compare(Loaded l1, Loaded l2) {
+				if (l1.task != l2.task)
+					return Integer.compare(l1.task, l2.task);
+				return Integer.compare(l1.seq, l2.seq);
+			}
+		});
+		ArrayList<GROUMGraph> graphs = new ArrayList<>(loaded.size());
+		for (Loaded l : loaded)
+			graphs.add(l.graph);
+		return graphs;
+	}
+
+	/**
+	 * Hands the graphs of a project to the consumer on the calling thread as
+	 * soon as they are built, in no particular order.
+	 *
+	 * @return the number of graphs loaded
+	 */
+	public int load(String changesPath, String projectName, SeedIndex seeds, final Consumer consumer) {
+		return new Run(changesPath, projectName, seeds).run(new Sink() {
+			@Override
+			public void accept(Loaded l) {
+				consumer.accept(l.graph);
+			}
+		});
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * @return the commits of a project that loading it reads, from change
+	 * graph files and segments
+	 */
+	public static HashSet<String> listCommits(String changesPath, String projectName) {
+		HashSet<String> commits = new HashSet<>();
+		File dir = new File(changesPath + "/" + projectName);
+		File[] files = dir.listFiles();
+		if (files == null)
+			return commits;
+		for (File sub : files)
+			if (ChangeGraphIO.isChangeGraphFile(sub.getName()))
+				commits.add(getCommit(sub));
+		for (File segment : SegmentReader.listSegments(dir)) {
+			try (SegmentReader reader = new SegmentReader(segment)) {
+				commits.addAll(reader.getCommits());
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+		return commits;
+	}
+
+	private static String getCommit(File file) {
+		int index = file.getName().indexOf('.');
+		if (index < 0)
+			index = file.getName().length();
+		return FileIO.getSimpleFileName(file.getName().substring(0, index));
+	}
+
+	private interface Sink {
+		void accept(Loaded l);
+	}
+
+	private static class Loaded {
+		private int task, seq;
+		private GROUMGraph graph;
+
+		private Loaded(int task, int seq, GROUMGraph graph) {
+			this.task = task;
+			this.seq = seq;
+			this.graph = graph;
+		}
+	}
+
+	private static final Loaded END = new Loaded(-1, -1, null);
+
+	/**
+	 * One load of a project: a task per change graph file and per commit in a
+	 * segment.
+	 */
+	private class Run {
+		private String projectName;
+		private File dir;
+		private SeedIndex seeds;
+		private BlockingQueue<Loaded> queue = new ArrayBlockingQueue<>(queueCapacity);
+		private AtomicInteger pending = new AtomicInteger(1);
+		private AtomicInteger numOfFiles = new AtomicInteger(), numOfCommits = new AtomicInteger(), numOfGraphs = new AtomicInteger();
+		private AtomicLong numOfBytes = new AtomicLong(), retainedBytes = new AtomicLong();
+		private ArrayList<SegmentReader> readers = new ArrayList<>();
+
+		private Run(String changesPath, String projectName, SeedIndex seeds) {
+			this.projectName = projectName;
+			this.dir = new File(changesPath + "/" + projectName);
+			this.seeds = seeds;
+		}
+
+		private int run(Sink sink) {
+			long start = System.currentTimeMillis(), heapBefore = usedHeap();
+			submitAll();
+			done();
+			long lastReport = start;
+			try {
+				while (true) {
+					Loaded l = queue.take();
+					if (l == END)
+						break;
+					sink.accept(l);
+					long now = System.currentTimeMillis();
+					if (now - lastReport >= REPORT_INTERVAL) {
+						report(now - start, heapBefore);
+						lastReport = now;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			for (SegmentReader reader : readers) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+			if (numOfGraphs.get() > 0)
+				report(System.currentTimeMillis() - start, heapBefore);
+			MineChangePatterns.numOfCommits.addAndGet(numOfCommits.get());
+			MineChangePatterns.numOfGraphs.addAndGet(numOfGraphs.get());
+			return numOfGraphs.get();
+		}
+
+		private void submitAll() {
+			if (!dir.exists())
+				return;
+			File[] files = dir.listFiles();
+			if (files == null)
+				return;
+			int task = 0;
+			for (final File sub : files) {
+				if (!ChangeGraphIO.isChangeGraphFile(sub.getName()))
+					continue;
+				numOfCommits.incrementAndGet();
+				final String commit = getCommit(sub);
+				if (seeds != null && !seeds.isNeeded(projectName, commit))
+					continue;
+				final int t = task++;
+				submit(new Runnable() {
+					@Override
+					public void run() {
+						numOfFiles.incrementAndGet();
+						numOfBytes.addAndGet(sub.length());
+						build(t, commit, ChangeGraphIO.read(sub));
+					}
+				});
+			}
+			for (File segment : SegmentReader.listSegments(dir)) {
+				final SegmentReader reader;
+				try {
+					reader = new SegmentReader(segment);
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
+					continue;
+				}
+				readers.add(reader);
+				numOfFiles.incrementAndGet();
+				numOfBytes.addAndGet(segment.length());
+				for (final String commit : reader.getCommits()) {
+					numOfCommits.incrementAndGet();
+					if (seeds != null && !seeds.isNeeded(projectName, commit))
+						continue;
+					final int t = task++;
+					submit(new Runnable() {
+						@Override
+						public void run() {
+							build(t, commit, reader.read(commit));
+						}
+					});
+				}
+			}
+		}
+
+		private void submit(final Runnable work) {
+			pending.incrementAndGet();
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						work.run();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					} finally {
+						done();
+					}
+				}
+			});
+		}
+
+		private void done() {
+			if (pending.decrementAndGet() == 0)
+				put(END);
+		}
+
+		private void build(int task, String commit, HashMap<String, HashMap<String, ChangeGraph>> fileChangeGraphs) {
+			if (fileChangeGraphs == null)
+				return;
+			int seq = 0;
+			for (String fp : fileChangeGraphs.keySet()) {
+				HashMap<String, ChangeGraph> cgs = fileChangeGraphs.get(fp);
+				for (String method : cgs.keySet()) {
+					ChangeGraph cg = cgs.get(method);
+					if (cg.getNormalization() != 0 && cg.getNormalization() != GROUMGraph.NORMALIZATION) {
+						System.err.println(commit + "," + fp + "," + method + ": normalization " + cg.getNormalization() + " is not " + GROUMGraph.NORMALIZATION);
+						continue;
+					}
+					// normalized graphs were filtered by size before they shrank
+					if (cg.getNormalization() == 0 && cg.getNodes().size() <= 2) continue;
+					if (seeds != null && !seeds.isNeeded(projectName, commit, fp + "," + method)) continue;
+					GROUMGraph g = new GROUMGraph(cg, commit + "," + fp + "," + method);
+					g.normalize();
+					g.setProject(projectName);
+					numOfGraphs.incrementAndGet();
+					retainedBytes.addAndGet(estimateSize(g));
+					put(new Loaded(task, seq++, g));
+				}
+			}
+		}
+
+		private void put(Loaded l) {
+			try {
+				queue.put(l);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void report(long elapsed, long heapBefore) {
+			double seconds = Math.max(1, elapsed) / 1000.0;
+			System.out.println(String.format("Loading %s: %d files %.1f/s, %d commits, %d graphs %.1f/s, %.1f MB read, ~%.1f MB retained (heap grew %.1f MB)",
+					projectName, numOfFiles.get(), numOfFiles.get() / seconds, numOfCommits.get(),
+					numOfGraphs.get(), numOfGraphs.get() / seconds, numOfBytes.get() / 1048576.0,
+					retainedBytes.get() / 1048576.0, (usedHeap() - heapBefore) / 1048576.0));
+		}
+	}
+
+	private static long estimateSize(GROUMGraph g) {
+		long size = 0;
+		for (GROUMNode node : g.getNodes()) {
+			size += NODE_BYTES + EDGE_BYTES * node.getOutEdges().size();
+			if (node.getStarts() != null)
+				size += 2 * (16 + 4 * node.getStarts().length);
+		}
+		return size;
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
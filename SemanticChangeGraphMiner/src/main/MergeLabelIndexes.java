@@ -0,0 +1,61 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+
+import change.LabelIndex;
+
+/**
+ * Merges the label indexes the extractor writes next to the change graphs of
+ * each repository into one corpus index, which the miner uses to load only
+ * graphs with seeds frequent across the corpus. Each repository is put under
+ * the path of its directory relative to the changes directory, as
+ * MineChangePatterns names projects.
+ *
+ * Usage: MergeLabelIndexes changesPath [out], out defaults to the corpus
+ * index in changesPath.
+ */
+public class MergeLabelIndexes {
+
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("Usage: MergeLabelIndexes changesPath [out]");
+			return;
+		}
+		File root = new File(args[0]);
+		File out = args.length > 1 ? new File(args[1]) : new File(root, LabelIndex.FILE_NAME);
+		long start = System.currentTimeMillis();
+		LabelIndex corpus = new LabelIndex();
+		int numOfIndexes = merge(root, root, corpus);
+		try {
+			corpus.write(out);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		System.out.println("Merged " + numOfIndexes + " indexes: " + corpus.getNumOfCommits() + " commits, " + corpus.getNumOfGraphs() + " graphs, "
+				+ corpus.getPostings().size() + " pair labels in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private static int merge(File root, File dir, LabelIndex corpus) {
+		File[] subs = dir.listFiles();
+		if (subs == null)
+			return 0;
+		int n = 0;
+		for (File sub : subs) {
+			if (sub.isDirectory())
+				n += merge(root, sub, corpus);
+			else if (sub.getName().equals(LabelIndex.FILE_NAME) && dir != root) {
+				String project = root.toURI().relativize(dir.toURI()).getPath();
+				if (project.endsWith("/"))
+					project = project.substring(0, project.length() - 1);
+				LabelIndex index = LabelIndex.read(sub, project);
+				if (index == null)
+					continue;
+				corpus.merge(index, project);
+				n++;
+			}
+		}
+		return n;
+	}
+}
@@ -1,9 +1,13 @@
 package main;
 
-import change.ChangeGraph;
+import change.LabelIndex;
 import groum.GROUMGraph;
+import groum.GraphStore;
+import groum.LabelDictionary;
 import mining.Miner;
+import mining.MiningContext;
 import mining.Pattern;
+import mining.SeedIndex;
 
 import org.apache.commons.lang.SystemUtils;
 
@@ -11,10 +15,12 @@ import utils.FileIO;
 import utils.NotifyingBlockingThreadPoolExecutor;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Scanner;
 import java.util.concurrent.Callable;
@@ -32,7 +38,24 @@ public class MineChangePatterns {
 	};
 	private static NotifyingBlockingThreadPoolExecutor pool = new NotifyingBlockingThreadPoolExecutor(THREAD_POOL_SIZE, THREAD_POOL_SIZE, 15, TimeUnit.SECONDS, 200, TimeUnit.MILLISECONDS, blockingTimeoutCallback);
 	
-	private static AtomicInteger numOfCommits = new AtomicInteger(0), numOfGraphs = new AtomicInteger(0);
+	static AtomicInteger numOfCommits = new AtomicInteger(0), numOfGraphs = new AtomicInteger(0);
+	private static int LOADER_POOL_SIZE = Runtime.getRuntime().availableProcessors(), LOADER_QUEUE_SIZE = 1000;
+	// threads growing the seeds of one miner; projects mined one per thread in mode 0 grow theirs sequentially
+	private static int MINER_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+	private static GraphLoader loader;
+	// each miner gets a context of its own with these settings
+	private static int mode = MiningContext.MODE_HYBRID, minFreq = MiningContext.DEFAULT_MIN_FREQ;
+	// extensions too many to count are sampled down to this many, 0 to count them all
+	private static int sampleSize = 0;
+	// seeds are grown most frequent first with -order frequency; budgets of 0 are unlimited
+	private static int seedOrder = Miner.ORDER_SEEDS, seedExpansions = 0;
+	private static long seedMillis = 0;
+	// only the k most frequent patterns of at least the size with -top k
+	private static int topK = 0, topMinSize = Pattern.minSize;
+	// with a store directory, graphs of cross-project mining are kept on disk instead of on the heap
+	private static File storeDir = null;
+	private static int STORE_CACHE_SIZE = 10000;
+	private static GraphStore.Writer storeWriter = null;
 	private static String changesPath ="E:/PhD1/research_project_2/CPatMinerV2/outputs";
 	private static String reposPath = "E:/PhD1/research_project_2/CPatMinerV2/repositories";
 
@@ -44,12 +67,34 @@ public class MineChangePatterns {
 
 		reposPath = "E:/PhD1/research_project_2/CPatMinerV2/repositories"; changesPath = "E:/PhD1/research_project_2/CPatMinerV2/outputs/";
 		if (args.length > 0) {
-			Pattern.mode = Integer.parseInt(args[0]);
-			if (Pattern.mode == 0) {
+			mode = Integer.parseInt(args[0]);
+			if (mode == 0) {
 				THREAD_POOL_SIZE = Integer.parseInt(args[1]);
 				pool = new NotifyingBlockingThreadPoolExecutor(THREAD_POOL_SIZE, THREAD_POOL_SIZE, 15, TimeUnit.SECONDS, 200, TimeUnit.MILLISECONDS, blockingTimeoutCallback);
 			}
+			for (int i = 1; i < args.length - 1; i++)
+				if (args[i].equals("-loaders"))
+					LOADER_POOL_SIZE = Integer.parseInt(args[i + 1]);
+				else if (args[i].equals("-store"))
+					storeDir = new File(args[i + 1]);
+				else if (args[i].equals("-cache"))
+					STORE_CACHE_SIZE = Integer.parseInt(args[i + 1]);
+				else if (args[i].equals("-miners"))
+					MINER_POOL_SIZE = Integer.parseInt(args[i + 1]);
+				else if (args[i].equals("-sample"))
+					sampleSize = Integer.parseInt(args[i + 1]);
+				else if (args[i].equals("-order"))
+					seedOrder = args[i + 1].equals("frequency") ? Miner.ORDER_FREQUENCY : Miner.ORDER_SEEDS;
+				else if (args[i].equals("-seedMillis"))
+					seedMillis = Long.parseLong(args[i + 1]);
+				else if (args[i].equals("-seedExpansions"))
+					seedExpansions = Integer.parseInt(args[i + 1]);
+				else if (args[i].equals("-top"))
+					topK = Integer.parseInt(args[i + 1]);
+				else if (args[i].equals("-topMinSize"))
+					topMinSize = Integer.parseInt(args[i + 1]);
 		}
+		loader = new GraphLoader(LOADER_POOL_SIZE, LOADER_QUEUE_SIZE);
 		ArrayList<GROUMGraph> allGraphs = new ArrayList<>();
 		HashSet<String> projectNames = new HashSet<String>();
 		String content = null;
@@ -62,6 +107,29 @@ public class MineChangePatterns {
 		}
 		reposPath = "E:/PhD1/research_project_2/CPatMinerV2/repositories"; changesPath = "E:/PhD1/research_project_2/CPatMinerV2/outputs";
 		content = FileIO.readStringFromFile("E:/PhD1/research_project_2/CPatMinerV2/repositories/repos.csv");
+		// label ids stay the same across runs from the same output directory
+		final File dictionaryFile = new File("output/" + LabelDictionary.FILE_NAME);
+		System.out.println("Labels: " + LabelDictionary.read(dictionaryFile));
+		// with a corpus label index, only graphs with a seed frequent in the whole corpus are loaded
+		ArrayList<String> corpusProjects = new ArrayList<>();
+		if (mode != 0) {
+			Scanner names = new Scanner(content);
+			while (names.hasNextLine()) {
+				String line = names.nextLine();
+				int index = line.indexOf(',');
+				corpusProjects.add(index == -1 ? line : line.substring(0, index));
+			}
+			names.close();
+		}
+		final SeedIndex corpusSeeds = mode == 0 ? null : readSeedIndex(new File(changesPath + "/" + LabelIndex.FILE_NAME), null, corpusProjects);
+		if (mode != 0 && storeDir != null) {
+			try {
+				storeWriter = new GraphStore.Writer(storeDir);
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+				return;
+			}
+		}
 		Scanner sc = new Scanner(content);
 		while (sc.hasNextLine()) {
 //			if (projectNames.size() >= 8000)
@@ -72,14 +140,15 @@ public class MineChangePatterns {
 				index = line.length();
 			final String name = line.substring(0, index);
 
-			if (Pattern.mode == 0) {
+			if (mode == 0) {
 				if (new File("output/patterns/" + name.replace("/", "---")).exists())
 					continue;
 				new File("output/patterns/" + name.replace("/", "---")).mkdirs();
 				pool.execute(new Runnable() {
 					@Override
 					public void run() {
-						ArrayList<GROUMGraph> graphs = readGraphs(changesPath, name);
+						SeedIndex seeds = readSeedIndex(new File(changesPath + "/" + name + "/" + LabelIndex.FILE_NAME), name, Collections.singletonList(name));
+						ArrayList<GROUMGraph> graphs = loader.load(changesPath, name, seeds);
 						if (!graphs.isEmpty()) {
 							projectNames.add(name);
 							System.out.println("Project " + projectNames.size() + " " + name);
@@ -89,8 +158,24 @@ public class MineChangePatterns {
 					}
 				});
 			}
+			else if (storeWriter != null) {
+				int n = loader.load(changesPath, name, corpusSeeds, new GraphLoader.Consumer() {
+					@Override
+					public void accept(GROUMGraph g) {
+						try {
+							storeWriter.add(g);
+						} catch (IOException e) {
+							System.err.println(e.getMessage());
+						}
+					}
+				});
+				if (n > 0) {
+					projectNames.add(name);
+					System.out.println("Project " + projectNames.size() + " " + name);
+				}
+			}
 			else {
-				ArrayList<GROUMGraph> graphs = readGraphs(changesPath, name);
+				ArrayList<GROUMGraph> graphs = loader.load(changesPath, name, corpusSeeds);
 				if (!graphs.isEmpty()) {
 					projectNames.add(name);
 					System.out.println("Project " + projectNames.size() + " " + name);
@@ -102,26 +187,50 @@ public class MineChangePatterns {
 		System.out.println("Projects: " + projectNames.size());
 		System.out.println("Commits: " + numOfCommits);
 		System.out.println("Graphs: " + numOfGraphs);
-		if (Pattern.mode != 0) {
-			File currDir = new File("output/patterns/" + new File(changesPath).getName() + (Pattern.mode == -1 ? "-hybrid" : "-cross"));
+		if (mode != 0) {
+			File currDir = new File("output/patterns/" + new File(changesPath).getName() + (mode == -1 ? "-hybrid" : "-cross"));
 			currDir.mkdirs();
-			mine(allGraphs, 1, currDir.getName());
+			if (storeWriter != null)
+				mine(1, currDir.getName());
+			else
+				mine(allGraphs, 1, currDir.getName());
 		}
 		System.out.println("Projects: " + projectNames.size());
 		System.out.println("Commits: " + numOfCommits);
 		System.out.println("Graphs: " + numOfGraphs);
 		long end = System.currentTimeMillis();
 		System.out.println((end - start) / 1000 + " s.");
-		if (Pattern.mode == 0) {
+		if (mode == 0) {
 			try {
 				pool.await(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 			} catch (final InterruptedException e) { }
 		}
+		try {
+			LabelDictionary.write(dictionaryFile);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
 	}
 	
-	private static ArrayList<GROUMGraph> mine(ArrayList<GROUMGraph> graphs, int level, String currDir) {
-		Miner miner = new Miner(level);
+	private static MiningContext newContext() {
+		MiningContext context = new MiningContext(mode, minFreq);
+		context.setSampleSize(sampleSize);
+		return context;
+	}
+
+	private static Miner newMiner(int level, String currDir) {
+		Miner miner = new Miner(newContext(), level);
 		miner.setCurrDir(currDir);
+		miner.setOrder(seedOrder);
+		miner.setSeedBudget(seedMillis, seedExpansions);
+		miner.setTopK(topK, topMinSize);
+		return miner;
+	}
+
+	private static ArrayList<GROUMGraph> mine(ArrayList<GROUMGraph> graphs, int level, String currDir) {
+		Miner miner = newMiner(level, currDir);
+		if (mode != 0)
+			miner.setParallelism(MINER_POOL_SIZE);
 		if (level == 1) {
 			return miner.mine(graphs, reposPath);
 		} else {
@@ -129,45 +238,37 @@ public class MineChangePatterns {
 		}
 	}
 
-	private static ArrayList<GROUMGraph> readGraphs(String changesPath, String projectName) {
-		ArrayList<GROUMGraph> graphs = new ArrayList<>();
-		File dir = new File(changesPath + "/" + projectName);
-		if (!dir.exists())
-			return graphs;
-		File[] files = dir.listFiles();
-		if (files == null)
-			return graphs;
-        for (int i = 0; i < files.length; i++) {
-			File sub = files[i];
-			if (!sub.getName().endsWith(".dat")) continue;
-			numOfCommits.incrementAndGet();
-			//System.out.println("Commit " + i + ": " + file.getName());
-			@SuppressWarnings("unchecked")
-			HashMap<String, HashMap<String, ChangeGraph>> fileChangeGraphs = (HashMap<String, HashMap<String, ChangeGraph>>) FileIO.readObjectFromFile(sub.getAbsolutePath());
-			if (fileChangeGraphs != null) {
-				for (String fp : fileChangeGraphs.keySet()) {
-					//System.out.println(fp);
-					HashMap<String, ChangeGraph> cgs = fileChangeGraphs.get(fp);
-					for (String method : cgs.keySet()) {
-						//System.out.println(method);
-						int index = sub.getName().indexOf('.');
-						if (index < 0) {
-							index = sub.getName().length();
-						}
-						String name = FileIO.getSimpleFileName(sub.getName().substring(0, index)) + "," + fp + "," + method;
-						ChangeGraph cg = cgs.get(method);
-						if (cg.getNodes().size() <= 2) continue;
-						numOfGraphs.incrementAndGet();
-						GROUMGraph g = new GROUMGraph(cg, name);
-						// FIXME
-						g.pruneDoubleEdges();
-						g.setProject(projectName);
-						graphs.add(g);
-					}
-				}
+	private static void mine(int level, String currDir) {
+		try {
+			storeWriter.close();
+			System.out.println("Stored " + storeWriter.getNumOfGraphs() + " graphs in " + storeDir);
+			try (GraphStore store = new GraphStore(storeDir, STORE_CACHE_SIZE)) {
+				Miner miner = newMiner(level, currDir);
+				miner.setParallelism(MINER_POOL_SIZE);
+				miner.mine(store, reposPath);
+			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return null if there is no readable index or it misses a commit of
+	 * one of the projects, whose graphs then all have to be loaded
+	 */
+	private static SeedIndex readSeedIndex(File file, String projectName, Collection<String> projects) {
+		LabelIndex index = LabelIndex.read(file, projectName);
+		if (index == null)
+			return null;
+		SeedIndex seeds = new SeedIndex(index, minFreq);
+		for (String project : projects) {
+			if (!seeds.covers(project, GraphLoader.listCommits(changesPath, project))) {
+				System.out.println("Label index " + file + " misses commits of " + project + ", loading all graphs");
+				return null;
 			}
 		}
-		return graphs;
+		System.out.println("Label index " + file + ": " + seeds.getFrequentSeeds().size() + " frequent seeds in " + index.getNumOfGraphs() + " indexed graphs");
+		return seeds;
 	}
 
 }
@@ -0,0 +1,112 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+
+import change.ChangeGraph;
+import change.ChangeGraphIO;
+import change.LabelIndex;
+import change.SegmentReader;
+import groum.GROUMGraph;
+import utils.FileIO;
+
+/**
+ * Offline pass that normalizes the change graphs of every repository under a
+ * changes directory the way mining does after loading them, and writes them
+ * as change graph files flagged with the normalization version. Mining from
+ * the output directory then builds the GROUM graphs as they are stored.
+ *
+ * Graphs of at most two nodes are dropped as the loader skips them. Commits
+ * already written to the output are skipped, so an interrupted pass can be
+ * run again. The label index of each repository is copied along.
+ *
+ * Usage: NormalizeChangeGraphs changesPath outPath
+ */
+public class NormalizeChangeGraphs {
+	private static int numOfCommits = 0, numOfGraphs = 0;
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: NormalizeChangeGraphs changesPath outPath");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		File root = new File(args[0]), out = new File(args[1]);
+		normalize(root, root, out);
+		System.out.println("Normalized " + numOfGraphs + " graphs of " + numOfCommits + " commits in " + (System.currentTimeMillis() - start) / 1000 + " s");
+	}
+
+	private static void normalize(File root, File dir, File out) {
+		File[] subs = dir.listFiles();
+		if (subs == null)
+			return;
+		File outDir = new File(out, root.toURI().relativize(dir.toURI()).getPath());
+		for (File sub : subs) {
+			if (sub.isDirectory()) {
+				if (!sub.equals(out))
+					normalize(root, sub, out);
+			} else if (ChangeGraphIO.isChangeGraphFile(sub.getName())) {
+				int index = sub.getName().indexOf('.');
+				if (index < 0)
+					index = sub.getName().length();
+				String commit = FileIO.getSimpleFileName(sub.getName().substring(0, index));
+				File file = new File(outDir, commit + ChangeGraphIO.EXTENSION);
+				if (!file.exists())
+					write(commit, ChangeGraphIO.read(sub), file);
+			} else if (sub.getName().equals(LabelIndex.FILE_NAME)) {
+				File file = new File(outDir, LabelIndex.FILE_NAME);
+				try {
+					outDir.mkdirs();
+					if (!file.exists())
+						Files.copy(sub.toPath(), file.toPath());
+				} catch (IOException e) {
+					System.err.println(e.getMessage());
+				}
+			}
+		}
+		for (File segment : SegmentReader.listSegments(dir)) {
+			try (SegmentReader reader = new SegmentReader(segment)) {
+				for (String commit : reader.getCommits()) {
+					File file = new File(outDir, commit + ChangeGraphIO.EXTENSION);
+					if (!file.exists())
+						write(commit, reader.read(commit), file);
+				}
+			} catch (IOException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+	}
+
+	private static void write(String commit, HashMap<String, HashMap<String, ChangeGraph>> fileChangeGraphs, File file) {
+		if (fileChangeGraphs == null)
+			return;
+		HashMap<String, HashMap<String, ChangeGraph>> normalized = new HashMap<>();
+		for (String fp : fileChangeGraphs.keySet()) {
+			HashMap<String, ChangeGraph> cgs = fileChangeGraphs.get(fp), ncgs = new HashMap<>();
+			for (String method : cgs.keySet()) {
+				ChangeGraph cg = cgs.get(method);
+				if (cg.getNormalization() == GROUMGraph.NORMALIZATION) {
+					ncgs.put(method, cg);
+					continue;
+				}
+				if (cg.getNormalization() != 0 || cg.getNodes().size() <= 2)
+					continue;
+				GROUMGraph g = new GROUMGraph(cg, commit + "," + fp + "," + method);
+				g.normalize();
+				ncgs.put(method, g.toChangeGraph());
+				numOfGraphs++;
+			}
+			if (!ncgs.isEmpty())
+				normalized.put(fp, ncgs);
+		}
+		file.getParentFile().mkdirs();
+		// write under a temporary name so a file in the output is always complete
+		File tmp = new File(file.getPath() + ".tmp");
+		ChangeGraphIO.write(normalized, tmp.getPath());
+		if (!tmp.renameTo(file))
+			System.err.println("Cannot rename " + tmp + " to " + file);
+		numOfCommits++;
+	}
+}
@@ -0,0 +1,226 @@
+package mining;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import groum.GROUMGraph;
+import groum.GROUMNode;
+
+/**
+ * Minimum DFS code of a fragment, as in gSpan, over the labels and versions
+ * of its nodes and the labels and directions of the edges between them,
+ * mapping edges included. Isomorphic fragments get equal codes, whatever the
+ * graphs they are in and the order their nodes were added.
+ *
+ * The code is built one edge at a time, taking the smallest rightmost
+ * extension over all embeddings of the code so far: backward edges from the
+ * rightmost node first, by target, then forward edges from the deepest node
+ * of the rightmost path. All the edges between two nodes make one code edge.
+ */
+final class DFSCode {
+	private static final int MAX_EMBEDDINGS = 4096;
+
+	private final int[] code;
+	private final int hash;
+
+	private DFSCode(int[] code) {
+		this.code = code;
+		this.hash = Arrays.hashCode(code);
+	}
+
+	/**
+	 * @return the code of the fragment, null if it is not connected or has
+	 * too many symmetric embeddings to search
+	 */
+	static DFSCode of(Fragment f) {
+		GROUMGraph g = f.getGraph();
+		HashMap<Integer, Integer> locals = new HashMap<>();
+		ArrayList<GROUMNode> nodes = new ArrayList<>();
+		for (int i = 0; i < f.getNumOfNodes(); i++) {
+			GROUMNode node = f.getNode(i);
+			if (!locals.containsKey(node.getIndex())) {
+				locals.put(node.getIndex(), nodes.size());
+				nodes.add(node);
+			}
+		}
+		int n = nodes.size();
+		if (n == 0)
+			return null;
+		int[] labels = new int[n];
+		for (int u = 0; u < n; u++)
+			labels[u] = nodes.get(u).getLabelId() << 2 | (nodes.get(u).getVersion() & 3);
+		if (n == 1)
+			return new DFSCode(new int[]{1, labels[0]});
+		// edge items seen from the first node: the label, then 0 out or 1 in
+		int[][][] edges = new int[n][n][];
+		int[] outOffsets = g.getOutOffsets(), outNeighbors = g.getOutNeighbors(), outLabels = g.getOutLabels();
+		int numOfPairs = 0;
+		for (int u = 0; u < n; u++) {
+			int i = nodes.get(u).getIndex();
+			for (int k = outOffsets[i]; k < outOffsets[i + 1]; k++) {
+				Integer v = locals.get(outNeighbors[k]);
+				if (v == null)
+					continue;
+				if (v == u)
+					return null;
+				if (edges[u][v] == null)
+					numOfPairs++;
+				edges[u][v] = add(edges[u][v], outLabels[k] << 1);
+				edges[v][u] = add(edges[v][u], outLabels[k] << 1 | 1);
+			}
+		}
+		for (int u = 0; u < n; u++)
+			for (int v = 0; v < n; v++)
+				if (edges[u][v] != null)
+					Arrays.sort(edges[u][v]);
+
+		ArrayList<Integer> code = new ArrayList<>();
+		code.add(n);
+		int[] parents = new int[n];
+		parents[0] = -1;
+		int size = 1;
+		ArrayList<Embedding> embeddings = new ArrayList<>();
+		for (int u = 0; u < n; u++)
+			embeddings.add(new Embedding(n, u));
+		for (int e = 0; e < numOfPairs; e++) {
+			int[] best = null;
+			ArrayList<Embedding> next = new ArrayList<>();
+			int rightmost = size - 1;
+			for (Embedding em : embeddings) {
+				int x = em.nodes[rightmost];
+				for (int d = parents[rightmost]; d >= 0; d = parents[d]) {
+					int y = em.nodes[d];
+					if (edges[x][y] != null && !em.used[x * n + y]) {
+						int[] entry = entry(rightmost, d, labels[x], labels[y], edges[x][y]);
+						int c = best == null ? -1 : compare(entry, best);
+						if (c < 0) {
+							best = entry;
+							next.clear();
+						}
+						if (c <= 0)
+							next.add(em.extend(x, y, -1));
+					}
+				}
+				for (int d = rightmost; d >= 0; d = parents[d]) {
+					int x1 = em.nodes[d];
+					for (int y = 0; y < n; y++) {
+						if (edges[x1][y] != null && em.indices[y] < 0) {
+							int[] entry = entry(d, size, labels[x1], labels[y], edges[x1][y]);
+							int c = best == null ? -1 : compare(entry, best);
+							if (c < 0) {
+								best = entry;
+								next.clear();
+							}
+							if (c <= 0)
+								next.add(em.extend(x1, y, size));
+						}
+					}
+				}
+			}
+			if (best == null || next.size() > MAX_EMBEDDINGS)
+				return null;
+			for (int v : best)
+				code.add(v);
+			if (best[1] == size) {
+				parents[size] = best[0];
+				size++;
+			}
+			embeddings = next;
+		}
+		if (size < n)
+			return null;
+		int[] c = new int[code.size()];
+		for (int i = 0; i < c.length; i++)
+			c[i] = code.get(i);
+		return new DFSCode(c);
+	}
+
+	private static int[] add(int[] items, int item) {
+		if (items == null)
+			return new int[]{item};
+		int[] a = Arrays.copyOf(items, items.length + 1);
+		a[items.length] = item;
+		return a;
+	}
+
+	private static int[] entry(int i, int j, int label1, int label2, int[] items) {
+		int[] entry = new int[5 + items.length];
+		entry[0] = i;
+		entry[1] = j;
+		entry[2] = label1;
+		entry[3] = label2;
+		entry[4] = items.length;
+		System.arraycopy(items, 0, entry, 5, items.length);
+		return entry;
+	}
+
+	/**
+	 * Backward entries before forward ones, backward ones by target and
+	 * forward ones by deepest source, then by labels.
+	 */
+	private static int compare(int[] e1, int[] e2) {
+		boolean b1 = e1[1] < e1[0], b2 = e2[1] < e2[0];
+		if (b1 != b2)
+			return b1 ? -1 : 1;
+		if (b1 && e1[1] != e2[1])
+			return Integer.compare(e1[1], e2[1]);
+		if (!b1 && e1[0] != e2[0])
+			return Integer.compare(e2[0], e1[0]);
+		for (int i = 2; i < e1.length && i < e2.length; i++)
+			if (e1[i] != e2[i])
+				return Integer.compare(e1[i], e2[i]);
+		return Integer.compare(e1.length, e2.length);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof DFSCode && ((DFSCode) obj).hash == hash && Arrays.equals(((DFSCode) obj).code, code);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(code);
+	}
+
+	/**
+	 * Nodes of the fragment by their DFS indices, the other way round, and
+	 * the pairs of nodes whose edges are in the code.
+	 */
+	private static class Embedding {
+		int[] nodes, indices;
+		boolean[] used;
+
+		Embedding(int n, int first) {
+			nodes = new int[n];
+			indices = new int[n];
+			Arrays.fill(indices, -1);
+			nodes[0] = first;
+			indices[first] = 0;
+			used = new boolean[n * n];
+		}
+
+		Embedding(Embedding em) {
+			nodes = em.nodes.clone();
+			indices = em.indices.clone();
+			used = em.used.clone();
+		}
+
+		Embedding extend(int x, int y, int index) {
+			Embedding em = new Embedding(this);
+			if (index >= 0) {
+				em.nodes[index] = y;
+				em.indices[y] = index;
+			}
+			int n = indices.length;
+			em.used[x * n + y] = true;
+			em.used[y * n + x] = true;
+			return em;
+		}
+	}
+}
@@ -8,13 +8,15 @@ import graphics.DotGraph;
 import groum.GROUMEdge;
 import groum.GROUMGraph;
 import groum.GROUMNode;
+import groum.LabelDictionary;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jdt.core.dom.ASTNode;
 
@@ -26,106 +28,127 @@ public class Fragment {
 	public static final int minSize = 2;
 	public static final int maxSize = 20;
 	
-	public static int nextFragmentId = 1, numofFragments = 0;
+	private static final int REF = LabelDictionary.getId("_ref_");
+	private static final int[] EMPTY = new int[0];
+	private static final long[] NO_FEATURES = new long[0], NO_BITS = new long[0];
+
+	/**
+	 * By the sorted indices of the nodes, so fragments of a graph come in the
+	 * order of their positions in it.
+	 */
+	static final Comparator<Fragment> POSITION_ORDER = new Comparator<Fragment>() {
+		@Override
+		public int compare(Fragment f1, Fragment f2) {
+			int[] s1 = f1.sortedNodes, s2 = f2.sortedNodes;
+			for (int i = 0; i < s1.length && i < s2.length; i++)
+				if (s1[i] != s2[i])
+					return Integer.compare(s1[i], s2[i]);
+			if (s1.length != s2.length)
+				return Integer.compare(s1.length, s2.length);
+			return Long.compare(f1.id, f2.id);
+		}
+	};
 	
-	private int id = -1;
+	private MiningContext context;
+	// with the seed it was grown from in the high half, so it does not depend on the seeds grown at the same time
+	private long id = -1;
+	// the ids its extensions are taken from, those of its seed
+	private AtomicLong ids;
 	private Fragment genFragmen;
-	private ArrayList<GROUMNode> nodes = new ArrayList<>();
-	private HashSet<GROUMNode> oldNodes = new HashSet<>(), newNodes = new HashSet<>();
 	private GROUMGraph graph;
-	private HashMap<Integer, Integer> vector = new HashMap<>();
+	// in the store of the context, once the graph is released
+	private int graphId = -1;
+	// indices of the nodes in the frozen graph, in the order they were added and sorted; never changed in place, so extensions share them
+	private int[] nodes = EMPTY, sortedNodes = EMPTY;
+	// the Exas vector as its features in ascending order and their counts
+	private long[] features = NO_FEATURES;
+	private int[] counts = EMPTY;
+	// of the vector, kept with it as fragments are grouped by it
+	private long fingerprint = 0;
 	private int idSum = 0;
+	// core action nodes over the node indices of the graph from word coreWord on, built when overlap is first checked
+	private long[] coreBits;
+	private int coreWord;
 	
-	private Fragment() {
-		this.id = nextFragmentId++;
-		numofFragments++;
+	private Fragment(MiningContext context, AtomicLong ids) {
+		this.context = context;
+		this.ids = ids;
+		this.id = ids.getAndIncrement();
+		context.fragmentCreated();
 	}
 	
-	public Fragment(GROUMNode node) {
-		this();
+	public Fragment(MiningContext context, GROUMNode node) {
+		this(context, context.getFragmentIds());
 		this.graph = node.getGraph();
-		nodes.add(node);
-		if (node.getVersion() == 0)
-			oldNodes.add(node);
-		else if (node.getVersion() == 1)
-			newNodes.add(node);
-		this.idSum = node.getId();
-		vector.put(1, 1);
+		graph.freeze();
+		addNode(node.getIndex());
+		setVector(new long[]{1}, new int[]{1});
 	}
 
-	public Fragment(GROUMNode[] pair) {
-		this();
+	/**
+	 * A seed fragment of a pair of nodes, numbered from the ids of its seed.
+	 */
+	public Fragment(MiningContext context, AtomicLong ids, GROUMNode[] pair) {
+		this(context, ids);
 		this.graph = pair[0].getGraph();
-		nodes.add(pair[0]); nodes.add(pair[1]);
-		for (GROUMNode node : pair) {
-			if (node.getVersion() == 0)
-				oldNodes.add(node);
-			else if (node.getVersion() == 1)
-				newNodes.add(node);
-		}
-		this.idSum = pair[0].getId() + pair[1].getId();
-		ExasFeature exasFeature = new ExasFeature(nodes);
-		addFeature(exasFeature.getFeature(pair[0].getLabel()), vector);
-		addFeature(exasFeature.getFeature(pair[1].getLabel()), vector);
-		ArrayList<String> labels = new ArrayList<>();
-		labels.add(pair[0].getLabel());
+		addNode(pair[0].getIndex());
+		addNode(pair[1].getIndex());
+		ExasFeature exasFeature = new ExasFeature(new int[]{pair[0].getLabelId(), pair[1].getLabelId()}, 2);
+		Features added = new Features();
+		int first = exasFeature.getNodeFeature(pair[0].getLabelId()), second = exasFeature.getNodeFeature(pair[1].getLabelId());
+		added.add(first);
+		added.add(second);
 		if (pair[0].getMappedNode() == pair[1] && pair[1].getMappedNode() == pair[0])
-			labels.add("_map_");
-		labels.add(pair[1].getLabel());
-		addFeature(exasFeature.getFeature(labels), vector);
+			added.add(ExasFeature.append(first, ExasFeature.getEdgeFeature("_map_"), second));
+		else
+			// without a map edge the second label falls on the edge position
+			added.add(ExasFeature.append(first, ExasFeature.getEdgeFeature(pair[1].getLabel()), 0));
+		addFeatures(added);
 	}
 
 	public Fragment extract() {
-		Fragment f = new Fragment(id, nodes);
+		Fragment f = new Fragment(id, getNodes());
+		f.context = context;
 		return f;
 	}
 	
 	public Fragment(Fragment fragment, ArrayList<GROUMNode> ens) {
-		this();
+		this(fragment.context, fragment.ids);
 		this.genFragmen = fragment;
-		this.graph = fragment.graph;
-		this.nodes = new ArrayList<GROUMNode>(fragment.nodes);
-		this.oldNodes = new HashSet<>(fragment.oldNodes);
-		this.newNodes = new HashSet<>(fragment.newNodes);
-		this.idSum = fragment.getIdSum();
-		this.vector = new HashMap<Integer, Integer>(fragment.getVector());
-		for (GROUMNode en : ens) {
-			this.nodes.add(en);
-			if (en.getVersion() == 0)
-				oldNodes.add(en);
-			else if (en.getVersion() == 1)
-				newNodes.add(en);
-			this.idSum += en.getId();
-			ExasFeature exasFeature = new ExasFeature(nodes);
-			buildVector(en, exasFeature);
-		}
+		this.graph = fragment.graph();
+		this.nodes = fragment.nodes;
+		this.sortedNodes = fragment.sortedNodes;
+		this.idSum = fragment.idSum;
+		this.features = fragment.features;
+		this.counts = fragment.counts;
+		this.fingerprint = fragment.fingerprint;
+		addNodes(ens);
 	}
 	
-	public Fragment(ArrayList<GROUMNode> ens) {
-		this();
-		for (GROUMNode en : ens) {
-			this.nodes.add(en);
-			if (en.getVersion() == 0)
-				oldNodes.add(en);
-			else if (en.getVersion() == 1)
-				newNodes.add(en);
-			this.idSum += en.getId();
-			ExasFeature exasFeature = new ExasFeature(nodes);
-			buildVector(en, exasFeature);
-		}
+	/**
+	 * A fragment of the given nodes of a graph, which is frozen if it is not
+	 * yet.
+	 */
+	public Fragment(MiningContext context, GROUMGraph graph, ArrayList<GROUMNode> ens) {
+		this(context, context.getFragmentIds());
+		this.graph = graph;
+		graph.freeze();
+		addNodes(ens);
 	}
 
-	public Fragment(int id, ArrayList<GROUMNode> nodes) {
+	/**
+	 * A copy of the nodes and the edges between them in a graph of their own,
+	 * which can be changed without touching the mined graph.
+	 */
+	public Fragment(long id, ArrayList<GROUMNode> nodes) {
 		this.id = id;
+		this.graph = new GROUMGraph();
 		HashMap<GROUMNode, GROUMNode> map = new HashMap<>();
 		for (GROUMNode node : nodes) {
 			GROUMNode cn = new GROUMNode(node);
+			cn.setGraph(graph);
+			graph.getNodes().add(cn);
 			map.put(node, cn);
-			this.nodes.add(cn);
-			if (cn.getVersion() == 0)
-				oldNodes.add(cn);
-			else if (cn.getVersion() == 1)
-				newNodes.add(cn);
 		}
 		for (GROUMNode node : nodes) {
 			GROUMNode cn = map.get(node);
@@ -135,6 +158,42 @@ public class Fragment {
 					new GROUMEdge(map.get(s), cn, e.getLabel());
 			}
 		}
+		graph.freeze();
+		for (GROUMNode node : nodes)
+			addNode(map.get(node).getIndex());
+	}
+
+	private void addNode(int index) {
+		int n = nodes.length;
+		nodes = Arrays.copyOf(nodes, n + 1);
+		nodes[n] = index;
+		int p = Arrays.binarySearch(sortedNodes, index);
+		if (p < 0)
+			p = -p - 1;
+		int[] sorted = new int[n + 1];
+		System.arraycopy(sortedNodes, 0, sorted, 0, p);
+		sorted[p] = index;
+		System.arraycopy(sortedNodes, p, sorted, p + 1, n - p);
+		sortedNodes = sorted;
+		idSum += index;
+		coreBits = null;
+	}
+
+	/**
+	 * Adds the nodes one by one, each with the paths it closes to the nodes
+	 * added before it.
+	 */
+	private void addNodes(ArrayList<GROUMNode> ens) {
+		int[] labelIds = new int[nodes.length + ens.size()];
+		for (int i = 0; i < nodes.length; i++)
+			labelIds[i] = graph().getNode(nodes[i]).getLabelId();
+		Features added = new Features();
+		for (GROUMNode en : ens) {
+			labelIds[nodes.length] = en.getLabelId();
+			addNode(en.getIndex());
+			buildVector(en, new ExasFeature(labelIds, nodes.length), added);
+		}
+		addFeatures(added);
 	}
 
 	public void pruneClosure() {
@@ -143,7 +202,7 @@ public class Fragment {
 	}
 
 	private void pruneDataClosure() {
-		for (GROUMNode node : nodes) {
+		for (GROUMNode node : getNodes()) {
 			for (GROUMEdge e : new HashSet<>(node.getInEdges())) {
 				if (e.isData()) {
 					e.pruneDataClosure();
@@ -153,7 +212,7 @@ public class Fragment {
 	}
 
 	private void pruneControlClosure() {
-		for (GROUMNode node : nodes) {
+		for (GROUMNode node : getNodes()) {
 			for (GROUMEdge e : new HashSet<>(node.getInEdges())) {
 				if (e.isControl()) {
 					e.pruneControlClosure();
@@ -162,56 +221,109 @@ public class Fragment {
 		}
 	}
 	
-	public void buildVector(GROUMNode node, ExasFeature exasFeature) {
-		ArrayList<String> sequence = new ArrayList<>();
-		sequence.add(node.getLabel());
-		backwardDFS(node, node, sequence, exasFeature);
+	private void buildVector(GROUMNode node, ExasFeature exasFeature, Features added) {
+		// features of the nodes by their position in sortedNodes
+		int[] nodeFeatures = new int[sortedNodes.length];
+		for (int i = 0; i < sortedNodes.length; i++)
+			nodeFeatures[i] = exasFeature.getNodeFeature(graph().getNode(sortedNodes[i]).getLabelId());
+		int f = nodeFeatures[Arrays.binarySearch(sortedNodes, node.getIndex())];
+		backwardDFS(node.getIndex(), node.getIndex(), f, 1, nodeFeatures, added);
 	}
 	
-	private void backwardDFS(GROUMNode firstNode, GROUMNode lastNode, ArrayList<String> sequence, ExasFeature exasFeature) {
-		forwardDFS(firstNode, lastNode, sequence, exasFeature);
+	/**
+	 * Adds the paths ending at lastNode and starting at firstNode or a node
+	 * before it.
+	 *
+	 * @param code the code of the path from firstNode to lastNode
+	 * @param length the number of nodes on the path
+	 */
+	private void backwardDFS(int firstNode, int lastNode, long code, int length, int[] nodeFeatures, Features added) {
+		forwardDFS(firstNode, lastNode, code, length, nodeFeatures, added);
 		
-		if(sequence.size() < ExasFeature.MAX_LENGTH) {
-			for(GROUMEdge e : firstNode.getInEdges()) {
-				if (nodes.contains(e.getSrc())) {
-					GROUMNode n = e.getSrc();
-					sequence.add(0, e.getLabel());
-					sequence.add(0, n.getLabel());
-					backwardDFS(n, lastNode, sequence, exasFeature);
-					sequence.remove(0);
-					sequence.remove(0);
+		if(2 * length - 1 < ExasFeature.MAX_LENGTH) {
+			int[] inOffsets = graph().getInOffsets(), inNeighbors = graph().getInNeighbors(), inLabels = graph().getInLabels();
+			for (int k = inOffsets[firstNode]; k < inOffsets[firstNode + 1]; k++) {
+				int p = Arrays.binarySearch(sortedNodes, inNeighbors[k]);
+				if (p >= 0) {
+					long xcode = ExasFeature.prepend(code, length, nodeFeatures[p], ExasFeature.getEdgeFeature(inLabels[k]));
+					backwardDFS(inNeighbors[k], lastNode, xcode, length + 1, nodeFeatures, added);
 				}
 			}
 		}
 	}
 	
-	private void forwardDFS(GROUMNode firstNode, GROUMNode lastNode, ArrayList<String> sequence, ExasFeature exasFeature) {
-		int feature = exasFeature.getFeature(sequence);
-		addFeature(feature, vector);
+	private void forwardDFS(int firstNode, int lastNode, long code, int length, int[] nodeFeatures, Features added) {
+		added.add(code);
 		
-		if(sequence.size() < ExasFeature.MAX_LENGTH) {
-			for(GROUMEdge e : lastNode.getOutEdges()) {
-				if (nodes.contains(e.getDest())) {
-					GROUMNode n = e.getDest();
-					sequence.add(e.getLabel());
-					sequence.add(n.getLabel());
-					forwardDFS(firstNode, n, sequence, exasFeature);
-					sequence.remove(sequence.size()-1);
-					sequence.remove(sequence.size()-1);
+		if(2 * length - 1 < ExasFeature.MAX_LENGTH) {
+			int[] outOffsets = graph().getOutOffsets(), outNeighbors = graph().getOutNeighbors(), outLabels = graph().getOutLabels();
+			for (int k = outOffsets[lastNode]; k < outOffsets[lastNode + 1]; k++) {
+				int p = Arrays.binarySearch(sortedNodes, outNeighbors[k]);
+				if (p >= 0) {
+					long xcode = ExasFeature.append(code, ExasFeature.getEdgeFeature(outLabels[k]), nodeFeatures[p]);
+					forwardDFS(firstNode, outNeighbors[k], xcode, length + 1, nodeFeatures, added);
 				}
 			}
 		}
 	}
-	
-	private void addFeature(int feature, HashMap<Integer, Integer> vector) {
-		int c = 0;
-		if (vector.containsKey(feature))
-			c = vector.get(feature);
-		vector.put(feature, c+1);
+
+	/**
+	 * Features collected while nodes are added, merged into the vector at the
+	 * end.
+	 */
+	private static class Features {
+		private long[] features = new long[16];
+		private int size = 0;
+
+		private void add(long feature) {
+			if (size == features.length)
+				features = Arrays.copyOf(features, size * 2);
+			features[size++] = feature;
+		}
+	}
+
+	private void addFeatures(Features added) {
+		long[] fs = added.features;
+		Arrays.sort(fs, 0, added.size);
+		long[] xfeatures = new long[features.length + added.size];
+		int[] xcounts = new int[xfeatures.length];
+		int i = 0, j = 0, n = 0;
+		while (i < features.length || j < added.size) {
+			if (j == added.size || (i < features.length && features[i] < fs[j])) {
+				xfeatures[n] = features[i];
+				xcounts[n++] = counts[i++];
+			} else {
+				long f = fs[j];
+				int c = 0;
+				if (i < features.length && features[i] == f)
+					c = counts[i++];
+				while (j < added.size && fs[j] == f) {
+					c++;
+					j++;
+				}
+				xfeatures[n] = f;
+				xcounts[n++] = c;
+			}
+		}
+		setVector(Arrays.copyOf(xfeatures, n), Arrays.copyOf(xcounts, n));
+	}
+
+	private void setVector(long[] features, int[] counts) {
+		this.features = features;
+		this.counts = counts;
+		long h = 0;
+		for (int i = 0; i < features.length; i++) {
+			h = (h + features[i]) * 0x9E3779B97F4A7C15L;
+			h = (h + counts[i]) * 0x9E3779B97F4A7C15L;
+		}
+		this.fingerprint = h ^ (h >>> 32);
 	}
 	
+	/**
+	 * @return the number of the fragment among those of its seed
+	 */
 	public int getId() {
-		return id;
+		return (int) id;
 	}
 	public void setId(int id) {
 		this.id = id;
@@ -225,31 +337,102 @@ public class Fragment {
 		this.genFragmen = genFragmen;
 	}
 
+	/**
+	 * @return the nodes in the order they were added
+	 */
 	public ArrayList<GROUMNode> getNodes() {
-		return nodes;
+		ArrayList<GROUMNode> l = new ArrayList<>(nodes.length);
+		for (int i : nodes)
+			l.add(graph().getNode(i));
+		return l;
 	}
 	public void setNodes(ArrayList<GROUMNode> nodes) {
-		this.nodes = nodes;
+		this.nodes = this.sortedNodes = EMPTY;
+		this.idSum = 0;
+		for (GROUMNode node : nodes)
+			addNode(node.getIndex());
+	}
+
+	public int getNumOfNodes() {
+		return nodes.length;
+	}
+
+	/**
+	 * @return the i-th node added
+	 */
+	public GROUMNode getNode(int i) {
+		return graph().getNode(nodes[i]);
+	}
+
+	/**
+	 * @return the index in the graph of the i-th node added
+	 */
+	int getNodeIndex(int i) {
+		return nodes[i];
 	}
 	
 	public int getIdSum() {
 		return idSum;
 	}
-	public HashMap<Integer, Integer> getVector() {
+	/**
+	 * @return a copy of the vector, from features to their counts
+	 */
+	public HashMap<Long, Integer> getVector() {
+		HashMap<Long, Integer> vector = new HashMap<>();
+		for (int i = 0; i < features.length; i++)
+			vector.put(features[i], counts[i]);
 		return vector;
 	}
-	public void setVector(HashMap<Integer, Integer> vector) {
-		this.vector = vector;
+	public boolean hasSameVector(Fragment other) {
+		return Arrays.equals(features, other.features) && Arrays.equals(counts, other.counts);
 	}
 	public void setId() {
-		this.id = nextFragmentId++;
+		this.id = context.getFragmentIds().getAndIncrement();
 		//return this.id;
 	}
 	/**
 	 * @return the graph
 	 */
 	public GROUMGraph getGraph() {
-		return graph;
+		return graph();
+	}
+
+	private GROUMGraph graph() {
+		GROUMGraph g = graph;
+		return g == null && graphId >= 0 ? context.getStore().get(graphId) : g;
+	}
+
+	/**
+	 * Drops the graph if it is from the store of the context, keeping only
+	 * its id there, so the fragment no longer keeps it on the heap once it is
+	 * out of the cache of the store. It is built again when asked for.
+	 */
+	void release() {
+		GROUMGraph g = graph;
+		if (g == null || g.getStoreId() < 0 || context.getStore() == null)
+			return;
+		this.graphId = g.getStoreId();
+		this.graph = null;
+		this.genFragmen = null;
+	}
+
+	/**
+	 * @return the id of the graph in the store if it is from one, else the
+	 * graph, so fragments of the same graph have equal keys
+	 */
+	Object getGraphKey() {
+		GROUMGraph g = graph;
+		if (g == null)
+			return graphId < 0 ? null : (Object) graphId;
+		return g.getStoreId() < 0 ? g : (Object) g.getStoreId();
+	}
+
+	private boolean isOfSameGraph(Fragment other) {
+		GROUMGraph g = graph, og = other.graph;
+		if (g != null && og != null)
+			return g == og;
+		Object key = getGraphKey();
+		return key != null && key.equals(other.getGraphKey());
 	}
 	/**
 	 * @param graph the graph to set
@@ -258,14 +441,12 @@ public class Fragment {
 		this.graph = graph;
 	}
 	
-	public int getVectorHashCode() {
-		ArrayList<Integer> keys = new ArrayList<>(vector.keySet());
-		Collections.sort(keys);
-		int h = 0;
-		for (int key : keys) {
-			h = h * 31 + vector.get(key);
-		}
-		return h;
+	/**
+	 * @return a hash of the features and their counts, the same for
+	 * fragments of the same vector
+	 */
+	public long getVectorFingerprint() {
+		return fingerprint;
 	}
 	
 	/**
@@ -287,11 +468,11 @@ public class Fragment {
 		tempNodes.retainAll(this.nodes);
 		if(tempNodes.size() > 0)
 			return false;*/
-		if (vector == null || frag.vector == null) {
+		if (features == null || frag.features == null) {
 			System.err.println("NULL vector!!!");
 			return false;
 		}
-		if(this.nodes.size() != frag.nodes.size() || !this.vector.equals(frag.vector))
+		if(this.nodes.length != frag.nodes.length || !hasSameVector(frag))
 			return false;
 		return true;
 	}
@@ -305,9 +486,9 @@ public class Fragment {
 			return true;
 		if (other == null)
 			return false;
-		if (this.idSum != other.getIdSum())
+		if (this.idSum != other.getIdSum() || !isOfSameGraph(other))
 			return false;
-		return nodes.equals(other.nodes);
+		return Arrays.equals(nodes, other.nodes);
 	}
 	/**
 	 * Set of nodes contains all the nodes of the other fragment
@@ -318,18 +499,23 @@ public class Fragment {
 		if(fragment == null) return false;
 		if (nodes == null) 
 			return false;
-		if (graph != fragment.getGraph())
+		if (!isOfSameGraph(fragment))
 			return false;
-		if (nodes.size() >= fragment.nodes.size() && nodes.containsAll((fragment.nodes)))
-			return true;
-		else
+		if (nodes.length < fragment.nodes.length)
 			return false;
+		for (int i : fragment.sortedNodes)
+			if (!contains(i))
+				return false;
+		return true;
 	}
 	/**
 	 * 
 	 */
 	public boolean contains(GROUMNode node) {
-		return this.nodes.contains(node);
+		return node.getGraph() == graph() && contains(node.getIndex());
+	}
+	private boolean contains(int index) {
+		return Arrays.binarySearch(sortedNodes, index) >= 0;
 	}
 	public boolean overlap(Fragment fragment) {
 		if (this == fragment) {
@@ -340,18 +526,75 @@ public class Fragment {
 			System.err.println("NULL fragment in checking overlap");
 			return false;
 		}
-		HashSet<GROUMNode> tempNodes = new HashSet<GROUMNode>();
-		tempNodes.addAll(fragment.nodes);
-		tempNodes.retainAll(this.nodes);
-		for (GROUMNode node : tempNodes)
-			if (node.isCoreAction())
+		if (!isOfSameGraph(fragment))
+			return false;
+		long[] b1 = getCoreBits(), b2 = fragment.getCoreBits();
+		int from = Math.max(coreWord, fragment.coreWord), to = Math.min(coreWord + b1.length, fragment.coreWord + b2.length);
+		for (int w = from; w < to; w++)
+			if ((b1[w - coreWord] & b2[w - fragment.coreWord]) != 0)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @param bits core action nodes over all the node indices of the graph
+	 * @return whether the fragment has one of them
+	 */
+	boolean overlap(long[] bits) {
+		long[] b = getCoreBits();
+		for (int k = 0; k < b.length; k++)
+			if ((b[k] & bits[coreWord + k]) != 0)
 				return true;
 		return false;
 	}
+
+	/**
+	 * Adds the core action nodes of the fragment to a bitset over all the
+	 * node indices of the graph.
+	 */
+	void addCoreActions(long[] bits) {
+		long[] b = getCoreBits();
+		for (int k = 0; k < b.length; k++)
+			bits[coreWord + k] |= b[k];
+	}
+
+	int getNumOfCoreActions() {
+		int n = 0;
+		for (long word : getCoreBits())
+			n += Long.bitCount(word);
+		return n;
+	}
+
+	private long[] getCoreBits() {
+		if (coreBits == null) {
+			long[] actions = graph().getCoreActions();
+			int first = -1, last = -1;
+			for (int i : sortedNodes) {
+				if ((actions[i >>> 6] & 1L << i) != 0) {
+					if (first < 0)
+						first = i;
+					last = i;
+				}
+			}
+			if (first < 0) {
+				coreWord = 0;
+				coreBits = NO_BITS;
+			} else {
+				long[] bits = new long[(last >>> 6) - (first >>> 6) + 1];
+				for (int i : sortedNodes) {
+					if (i >= first && i <= last)
+						bits[(i >>> 6) - (first >>> 6)] |= actions[i >>> 6] & 1L << i;
+				}
+				coreWord = first >>> 6;
+				coreBits = bits;
+			}
+		}
+		return coreBits;
+	}
 	
 	@Override
 	public int hashCode() {
-		return id;
+		return Long.hashCode(id);
 	}
 	
 	/*@Override
@@ -360,13 +603,13 @@ public class Fragment {
 		result.append("Fragment " + this.id + ": " + 
 				this.nodes.size() + " nodes\r\n");
 		try {
-			result.append("File: " + GROUMNode.fileNames.get(this.graph.getFileID()) + "\r\n");
+			result.append("File: " + GROUMNode.fileNames.get(graph().getFileID()) + "\r\n");
 		}
 		catch(Exception e) {
 			e.printStackTrace();
 			System.err.println(this.graph);
-			System.err.println(this.graph.getFileID());
-			System.err.println(GROUMNode.fileNames.get(this.graph.getFileID()));
+			System.err.println(graph().getFileID());
+			System.err.println(GROUMNode.fileNames.get(graph().getFileID()));
 		}
 		//result.append("Vector: " + this.gramVector + "\r\n");
 		result.append(this.nodes.size() + " Nodes: ");
@@ -438,6 +681,7 @@ public class Fragment {
 		subgraphs[1] = new StringBuilder();
 		subgraphs[1].append(dg.addSubgraphStart("cluster1"));
 		HashMap<GROUMNode, Integer> ids = new HashMap<GROUMNode, Integer>();
+		ArrayList<GROUMNode> nodes = getNodes();
 		// add nodes
 		int id = 0;
 		for(GROUMNode node : nodes) {
@@ -512,15 +756,16 @@ public class Fragment {
 	public void delete() {
 		this.genFragmen = null;
 		this.graph = null;
-		this.oldNodes.clear();
-		this.newNodes.clear();
-		this.vector.clear();
+		this.graphId = -1;
+		this.features = null;
+		this.counts = null;
+		this.coreBits = null;
 		try {
 			this.finalize();
 		} catch (Throwable e) {
 			e.printStackTrace();
 		}
-		numofFragments--;
+		context.fragmentDeleted();
 	}
 	
 	HashSet<Fragment> exactCloneList(HashSet<Fragment> group, Fragment frag) {
@@ -547,41 +792,39 @@ public class Fragment {
 		return res;
 	}
 
-	public HashMap<String, HashSet<ArrayList<GROUMNode>>> extend() {
-		int[] sizes = getMethodSizes();
+	public HashMap<Long, HashSet<ArrayList<GROUMNode>>> extend() {
+		GROUMGraph graph = graph();
 		HashSet<GROUMNode> ens = new HashSet<>();
 		GROUMNode[] lasts = {null, null};
-		for (GROUMNode node : nodes) {
-			for (GROUMNode n : node.getInNodes()) {
-				if (sizes[n.getVersion()] < Pattern.maxSize && !nodes.contains(n))
-					ens.add(n);
-			}
-			for (GROUMNode n : node.getOutNodes()) {
-				if (sizes[n.getVersion()] < Pattern.maxSize && !nodes.contains(n))
-					ens.add(n);
-			}
-			lasts[node.getVersion()] = node;
-		}
-		HashMap<String, HashSet<ArrayList<GROUMNode>>> lens = new HashMap<>();
+		addExtendableNodes(ens, lasts);
+		HashMap<Long, HashSet<ArrayList<GROUMNode>>> lens = new HashMap<>();
 		for (GROUMNode node : ens) {
 			if ((node.isCoreAction() || node.isControl())
 					&& lasts[node.getVersion()] != null 
-					&& node.getLabel().equals(lasts[node.getVersion()].getLabel())) 
+					&& node.getLabelId() == lasts[node.getVersion()].getLabelId()) 
 				continue;
-			GROUMNode mappedNode = node.getMappedNode();
+			int mapped = graph.getMappedNode(node.getIndex());
+			GROUMNode mappedNode = mapped < 0 ? null : graph.getNode(mapped);
 			if (node.getType() == GROUMNode.TYPE_FIELD) {
 				if (node.isLiteral()) {
 					add(lens, node, mappedNode);
 				} else {
-					ArrayList<GROUMNode> defs = node.getDefinitions();
-					if (defs.isEmpty()) {
-						HashSet<GROUMNode> refs = new HashSet<GROUMNode>(), nonrefs = new HashSet<GROUMNode>();
-						node.getOutNodes(refs, nonrefs);
-						if (overlap(nonrefs, nodes))
+					int i = node.getIndex();
+					int[] inOffsets = graph.getInOffsets(), inLabels = graph.getInLabels();
+					boolean hasDefinition = false;
+					for (int k = inOffsets[i]; k < inOffsets[i + 1] && !hasDefinition; k++)
+						hasDefinition = inLabels[k] == REF;
+					if (!hasDefinition) {
+						int[] outOffsets = graph.getOutOffsets(), outNeighbors = graph.getOutNeighbors(), outLabels = graph.getOutLabels();
+						boolean found = false;
+						for (int k = outOffsets[i]; k < outOffsets[i + 1] && !found; k++)
+							found = outLabels[k] != REF && contains(outNeighbors[k]);
+						if (found)
 							add(lens, node, mappedNode);
 						else {
-							for (GROUMNode next : nonrefs) {
-								add(lens, node, mappedNode, next);
+							for (int k = outOffsets[i]; k < outOffsets[i + 1]; k++) {
+								if (outLabels[k] != REF)
+									add(lens, node, mappedNode, graph.getNode(outNeighbors[k]));
 							}
 						}
 					}
@@ -591,87 +834,95 @@ public class Fragment {
 					add(lens, node, mappedNode);
 				}
 				else {
-					HashSet<GROUMNode> ins = node.getInNodes(), outs = node.getOutNodes();
-					ins.remove(mappedNode); outs.remove(mappedNode);
-					if (!ins.isEmpty() && !outs.isEmpty()) {
-						boolean found = false;
-						for (GROUMNode n : ins) {
-							if (nodes.contains(n)) {
-								found = true;
-								break;
-							}
-						}
-						if (found) {
-							found = false;
-							for (GROUMNode n : outs) {
-								if (n.isCoreAction() && nodes.contains(n)) {
-									found = true;
-									break;
-								}
-							}
-							if (found) {
-								add(lens, node, mappedNode);
-							} else {
-								for (GROUMNode next : outs) {
-									if (next.isCoreAction()) {
-										add(lens, node, mappedNode, next);
-									}
-								}
-							}
-						} else {
-							for (GROUMNode next : ins) {
-								add(lens, node, mappedNode, next);
-							}
-						}
-					}
+					addBetween(lens, node, mappedNode);
 				}
 			} else if (node.getType() == GROUMNode.TYPE_CONTROL) {
-				HashSet<GROUMNode> ins = node.getInNodes(), outs = node.getOutNodes();
-				ins.remove(mappedNode); outs.remove(mappedNode);
-				if (!ins.isEmpty() && !outs.isEmpty()) {
-					boolean found = false;
-					for (GROUMNode n : ins) {
-						if (nodes.contains(n)) {
-							found = true;
-							break;
-						}
-					}
-					if (found) {
-						found = false;
-						for (GROUMNode n : outs) {
-							if (n.isCoreAction() && nodes.contains(n)) {
-								found = true;
-								break;
-							}
-						}
-						if (found) {
-							add(lens, node, mappedNode);
-						} else {
-							for (GROUMNode next : outs) {
-								if (next.isCoreAction()) {
-									add(lens, node, mappedNode, next);
-								}
-							}
-						}
-					} else {
-						for (GROUMNode next : ins) {
-							add(lens, node, mappedNode, next);
-						}
-					}
-				}
+				addBetween(lens, node, mappedNode);
 			}
 		}
 		return lens;
 	}
 
-	private void add(HashMap<String, HashSet<ArrayList<GROUMNode>>> lens, GROUMNode node, GROUMNode mappedNode, GROUMNode next) {
-		String label = node.getLabel();
-		GROUMNode mappedNext = next.getMappedNode();
-		if (mappedNode != null)
-			label += "-" + mappedNode.getLabel();
-		label += "-" + next.getLabel();
-		if (mappedNext != null)
-			label += "-" + mappedNext.getLabel();
+	/**
+	 * Adds the nodes of the frozen graph next to the fragment, which are not
+	 * in it, in methods not yet too large, and the last node of each version
+	 * to lasts.
+	 */
+	private void addExtendableNodes(HashSet<GROUMNode> ens, GROUMNode[] lasts) {
+		int[] sizes = getMethodSizes();
+		GROUMGraph graph = graph();
+		int[] inOffsets = graph.getInOffsets(), inNeighbors = graph.getInNeighbors();
+		int[] outOffsets = graph.getOutOffsets(), outNeighbors = graph.getOutNeighbors();
+		for (int i : nodes) {
+			for (int k = inOffsets[i]; k < inOffsets[i + 1]; k++) {
+				GROUMNode n = graph.getNode(inNeighbors[k]);
+				if (sizes[n.getVersion()] < Pattern.maxSize && !contains(inNeighbors[k]))
+					ens.add(n);
+			}
+			for (int k = outOffsets[i]; k < outOffsets[i + 1]; k++) {
+				GROUMNode n = graph.getNode(outNeighbors[k]);
+				if (sizes[n.getVersion()] < Pattern.maxSize && !contains(outNeighbors[k]))
+					ens.add(n);
+			}
+			GROUMNode node = graph.getNode(i);
+			lasts[node.getVersion()] = node;
+		}
+	}
+
+	/**
+	 * Adds an action or control node that has neighbors other than its mapped
+	 * node on both sides: alone if it sits between the fragment and a core
+	 * action of it, otherwise together with each core action after it or, if
+	 * nothing before it is in the fragment, with each node before it.
+	 */
+	private void addBetween(HashMap<Long, HashSet<ArrayList<GROUMNode>>> lens, GROUMNode node, GROUMNode mappedNode) {
+		int i = node.getIndex(), m = mappedNode == null ? -1 : mappedNode.getIndex();
+		GROUMGraph graph = graph();
+		int[] inOffsets = graph.getInOffsets(), inNeighbors = graph.getInNeighbors();
+		int[] outOffsets = graph.getOutOffsets(), outNeighbors = graph.getOutNeighbors();
+		boolean hasIns = false, hasOuts = false, found = false;
+		for (int k = inOffsets[i]; k < inOffsets[i + 1]; k++) {
+			if (inNeighbors[k] != m) {
+				hasIns = true;
+				if (!found && contains(inNeighbors[k]))
+					found = true;
+			}
+		}
+		for (int k = outOffsets[i]; k < outOffsets[i + 1] && !hasOuts; k++)
+			hasOuts = outNeighbors[k] != m;
+		if (!hasIns || !hasOuts)
+			return;
+		if (found) {
+			found = false;
+			for (int k = outOffsets[i]; k < outOffsets[i + 1] && !found; k++) {
+				GROUMNode n = graph.getNode(outNeighbors[k]);
+				found = outNeighbors[k] != m && n.isCoreAction() && contains(outNeighbors[k]);
+			}
+			if (found) {
+				add(lens, node, mappedNode);
+			} else {
+				for (int k = outOffsets[i]; k < outOffsets[i + 1]; k++) {
+					GROUMNode next = graph.getNode(outNeighbors[k]);
+					if (outNeighbors[k] != m && next.isCoreAction())
+						add(lens, node, mappedNode, next);
+				}
+			}
+		} else {
+			for (int k = inOffsets[i]; k < inOffsets[i + 1]; k++) {
+				if (inNeighbors[k] != m)
+					add(lens, node, mappedNode, graph.getNode(inNeighbors[k]));
+			}
+		}
+	}
+
+	private void add(HashMap<Long, HashSet<ArrayList<GROUMNode>>> lens, GROUMNode node, GROUMNode mappedNode, GROUMNode next) {
+		GROUMGraph graph = graph();
+		int mapped = graph.getMappedNode(next.getIndex());
+		GROUMNode mappedNext = mapped < 0 ? null : graph.getNode(mapped);
+		// keyed by the sequence of labels, so a missing mapped node does not tell keys apart
+		long label = mappedNode != null
+				? context.pack(node.getLabelId(), mappedNode.getLabelId(), next.getLabelId(), getLabelId(mappedNext))
+				: context.pack(node.getLabelId(), next.getLabelId(), getLabelId(mappedNext), LabelDictionary.NONE);
 		HashSet<ArrayList<GROUMNode>> s = lens.get(label);
 		if (s == null) {
 			s = new HashSet<>();
@@ -687,10 +938,8 @@ public class Fragment {
 		s.add(l);
 	}
 
-	private void add(HashMap<String, HashSet<ArrayList<GROUMNode>>> lens, GROUMNode node, GROUMNode mappedNode) {
-		String label = node.getLabel();
-		if (mappedNode != null)
-			label += "-" + mappedNode.getLabel();
+	private void add(HashMap<Long, HashSet<ArrayList<GROUMNode>>> lens, GROUMNode node, GROUMNode mappedNode) {
+		long label = context.pack(node.getLabelId(), getLabelId(mappedNode), LabelDictionary.NONE, LabelDictionary.NONE);
 		HashSet<ArrayList<GROUMNode>> s = lens.get(label);
 		if (s == null) {
 			s = new HashSet<>();
@@ -703,6 +952,10 @@ public class Fragment {
 		s.add(l);
 	}
 
+	private static int getLabelId(GROUMNode node) {
+		return node == null ? LabelDictionary.NONE : node.getLabelId();
+	}
+
 	private <E> boolean overlap(HashSet<E> s1, ArrayList<E> s2) {
 		for (E e : s1)
 			if (s2.contains(e))
@@ -710,26 +963,15 @@ public class Fragment {
 		return false;
 	}
 
-	public HashMap<String, HashSet<ArrayList<GROUMNode>>> superExtend() {
-		int[] sizes = getMethodSizes();
+	public HashMap<Long, HashSet<ArrayList<GROUMNode>>> superExtend() {
 		HashSet<GROUMNode> ens = new HashSet<>();
 		GROUMNode[] lasts = {null, null};
-		for (GROUMNode node : nodes) {
-			for (GROUMNode n : node.getInNodes()) {
-				if (sizes[n.getVersion()] < Pattern.maxSize && !nodes.contains(n))
-					ens.add(n);
-			}
-			for (GROUMNode n : node.getOutNodes()) {
-				if (sizes[n.getVersion()] < Pattern.maxSize && !nodes.contains(n))
-					ens.add(n);
-			}
-			lasts[node.getVersion()] = node;
-		}
-		HashMap<String, HashSet<ArrayList<GROUMNode>>> lens = new HashMap<>();
+		addExtendableNodes(ens, lasts);
+		HashMap<Long, HashSet<ArrayList<GROUMNode>>> lens = new HashMap<>();
 		for (GROUMNode node : ens) {
 			if ((node.isCoreAction() || node.isControl())
 					&& lasts[node.getVersion()] != null 
-					&& node.getLabel().equals(lasts[node.getVersion()].getLabel())) 
+					&& node.getLabelId() == lasts[node.getVersion()].getLabelId()) 
 				continue;
 			GROUMNode mappedNode = node.getMappedNode();
 			if (node.getType() == GROUMNode.TYPE_FIELD) {
@@ -742,7 +984,7 @@ public class Fragment {
 					for (GROUMEdge e : node.getOutEdges()) {
 						GROUMNode n = e.getDest();
 						if (n.getType() != GROUMNode.TYPE_FIELD) {
-							if (n != mappedNode && nodes.contains(n)) {
+							if (n != mappedNode && contains(n)) {
 								c++;
 								if (c == 2)
 									break;
@@ -768,8 +1010,8 @@ public class Fragment {
 		return lens;
 	}
 
-	private void checkConnectivity(HashMap<String, HashSet<ArrayList<GROUMNode>>> lens) {
-		for (String label : lens.keySet()) {
+	private void checkConnectivity(HashMap<Long, HashSet<ArrayList<GROUMNode>>> lens) {
+		for (long label : lens.keySet()) {
 			HashSet<ArrayList<GROUMNode>> ens = lens.get(label);
 			for (ArrayList<GROUMNode> ns : new HashSet<ArrayList<GROUMNode>>(ens)) {
 				HashSet<GROUMNode> oldNeighbors = new HashSet<>(), newNeighbors = new HashSet<>();
@@ -783,14 +1025,10 @@ public class Fragment {
 					}
 				}
 				boolean isConnected = true;
-				if (!oldNeighbors.isEmpty()) {
-					oldNeighbors.retainAll(oldNodes);
-					isConnected = !oldNeighbors.isEmpty();
-				}
-				if (isConnected && !newNeighbors.isEmpty()) {
-					newNeighbors.retainAll(newNodes);
-					isConnected = !newNeighbors.isEmpty();
-				}
+				if (!oldNeighbors.isEmpty())
+					isConnected = containsAny(oldNeighbors, 0);
+				if (isConnected && !newNeighbors.isEmpty())
+					isConnected = containsAny(newNeighbors, 1);
 				if (!isConnected)
 					ens.remove(ns);
 				else
@@ -799,12 +1037,20 @@ public class Fragment {
 		}
 	}
 
+	private boolean containsAny(HashSet<GROUMNode> ns, int version) {
+		for (GROUMNode n : ns)
+			if (n.getVersion() == version && contains(n))
+				return true;
+		return false;
+	}
+
 	public boolean isAChange() {
 		// TODO refine change pattern
 		// is not a change if old and new nodes have same labels
 		
 		// add reference nodes
 		// remove non-initialized definition nodes
+		ArrayList<GROUMNode> nodes = getNodes();
 		boolean hasGotoOnly = true;
 		for (GROUMNode node : new HashSet<GROUMNode>(nodes)) {
 			ArrayList<GROUMNode> refs = node.getReferences();
@@ -819,6 +1065,7 @@ public class Fragment {
 			if (node.isCoreAction() && !node.isGoto())
 				hasGotoOnly = false;
 		}
+		setNodes(nodes);
 		if (hasGotoOnly)
 			return false;
 		boolean hasOld = false, hasNew = false;
@@ -833,17 +1080,19 @@ public class Fragment {
 
 	public int[] getMethodSizes() {
 		int[] sizes = {0, 0};
-		for(GROUMNode node : nodes)
+		for(int i : nodes) {
+			GROUMNode node = graph().getNode(i);
 			if(node.isCoreAction()) {
 				sizes[node.getVersion()]++;
 			}
+		}
 		return sizes;
 	}
 
 	public int getNonDataSize() {
 		int count = 0;
-		for (GROUMNode node : nodes)
-			if (node.getType() != GROUMNode.TYPE_FIELD)
+		for (int i : nodes)
+			if (graph().getNode(i).getType() != GROUMNode.TYPE_FIELD)
 				count++;
 		return count;
 	}
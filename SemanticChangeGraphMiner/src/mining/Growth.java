@@ -0,0 +1,94 @@
+package mining;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import groum.LabelDictionary;
+
+/**
+ * The growth of a seed label on the worklist of a {@link Miner}, one
+ * extension at a time: the pattern to extend next, the patterns found and
+ * what the seed has spent so far.
+ */
+class Growth {
+	/**
+	 * By seed label, so that one thread grows each seed to the end before
+	 * the next, as if grown recursively.
+	 */
+	static final Comparator<Growth> SEED_ORDER = new Comparator<Growth>() {
+		@Override
+		public int compare(Growth g1, Growth g2) {
+			return Integer.compare(g1.index, g2.index);
+		}
+	};
+
+	/**
+	 * Most frequent pattern first, then by seed label.
+	 */
+	static final Comparator<Growth> FREQUENCY_ORDER = new Comparator<Growth>() {
+		@Override
+		public int compare(Growth g1, Growth g2) {
+			if (g1.freq != g2.freq)
+				return Integer.compare(g2.freq, g1.freq);
+			return Integer.compare(g1.index, g2.index);
+		}
+	};
+
+	final int index;
+	final long label;
+	// null until the seed is first taken
+	Pattern pattern;
+	// of the pattern, or the number of seed fragments before it is built
+	int freq;
+	final ArrayList<Pattern> found = new ArrayList<>();
+	// claimed by the seed, see Miner.isNew
+	final ArrayList<DFSCode> codes = new ArrayList<>();
+	// of its fragments, with the index of the seed in the high half
+	final AtomicLong fragmentIds;
+	int expansions = 0;
+	long nanos = 0;
+	boolean isOverBudget = false;
+	// the code it stopped at as an earlier seed claimed it, if any
+	DFSCode stop;
+	// the changes by committed seeds and the top support when it was started, see Miner.commit
+	int start, startFreq;
+	boolean isDone = false;
+	private final int seedFreq;
+
+	Growth(int index, long label, int freq) {
+		this.index = index;
+		this.label = label;
+		this.freq = freq;
+		this.seedFreq = freq;
+		this.fragmentIds = new AtomicLong(getFirstFragmentId());
+	}
+
+	private long getFirstFragmentId() {
+		return (index + 1L) << 32 | 1;
+	}
+
+	/**
+	 * Forgets all the seed did, to be grown again from its seed fragments,
+	 * which are numbered the same again. The patterns are already cleared.
+	 */
+	void reset() {
+		pattern = null;
+		freq = seedFreq;
+		found.clear();
+		codes.clear();
+		expansions = 0;
+		nanos = 0;
+		isOverBudget = false;
+		stop = null;
+		isDone = false;
+		fragmentIds.set(getFirstFragmentId());
+	}
+
+	/**
+	 * @return the labels of the seed pair
+	 */
+	String getSeed() {
+		return LabelDictionary.getLabel((int) (label >>> 32)) + Miner.PAIR_SEPARATOR + LabelDictionary.getLabel((int) label);
+	}
+}
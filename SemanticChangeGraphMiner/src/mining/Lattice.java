@@ -1,14 +1,24 @@
 package mining;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 /**
  * @author Nguyen Anh Hoan
  *
  */
 public class Lattice {
 	private int step;
-	private ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+	// read by seeds growing in parallel while others add to it
+	private List<Pattern> patterns = new CopyOnWriteArrayList<Pattern>();
+	// fragments of the patterns by graph key and node index, so a fragment is only checked against those sharing a node with it
+	private HashMap<Object, HashMap<Integer, ArrayList<Fragment>>> fragmentsOfNode = new HashMap<>();
+	private HashMap<Fragment, Pattern> patternOfFragment = new HashMap<>();
 
 	public int getStep() {
 		return step;
@@ -18,22 +28,121 @@ public class Lattice {
 		this.step = step;
 	}
 
-	public ArrayList<Pattern> getPatterns() {
+	public List<Pattern> getPatterns() {
 		return patterns;
 	}
 	
-	public void add(Pattern p) {
+	public synchronized void add(Pattern p) {
 		patterns.add(p);
+		for (Fragment f : p.getFragments()) {
+			patternOfFragment.put(f, p);
+			HashMap<Integer, ArrayList<Fragment>> fs = fragmentsOfNode.get(f.getGraphKey());
+			if (fs == null) {
+				fs = new HashMap<>();
+				fragmentsOfNode.put(f.getGraphKey(), fs);
+			}
+			for (int i = 0; i < f.getNumOfNodes(); i++) {
+				int index = f.getNodeIndex(i);
+				ArrayList<Fragment> l = fs.get(index);
+				if (l == null) {
+					l = new ArrayList<>(2);
+					fs.put(index, l);
+				}
+				// a node may be listed twice in a fragment
+				if (l.isEmpty() || l.get(l.size() - 1) != f)
+					l.add(f);
+			}
+		}
+		// under the lock, as other seeds check their fragments against these
+		p.release();
 	}
 	
-	public void remove(Pattern p) {
-		patterns.remove(p);
+	public synchronized void remove(Pattern p) {
+		if (!patterns.remove(p))
+			return;
+		for (Fragment f : p.getFragments()) {
+			patternOfFragment.remove(f);
+			HashMap<Integer, ArrayList<Fragment>> fs = fragmentsOfNode.get(f.getGraphKey());
+			for (int i = 0; i < f.getNumOfNodes(); i++) {
+				int index = f.getNodeIndex(i);
+				ArrayList<Fragment> l = fs.get(index);
+				if (l == null)
+					continue;
+				Iterator<Fragment> it = l.iterator();
+				while (it.hasNext())
+					if (it.next() == f)
+						it.remove();
+				if (l.isEmpty())
+					fs.remove(index);
+			}
+			if (fs.isEmpty())
+				fragmentsOfNode.remove(f.getGraphKey());
+		}
+	}
+
+	/**
+	 * @return the fragments of the patterns having all the nodes of the
+	 * fragment
+	 */
+	private ArrayList<Fragment> getContainers(Fragment fragment) {
+		ArrayList<Fragment> containers = new ArrayList<>();
+		HashMap<Integer, ArrayList<Fragment>> fs = fragmentsOfNode.get(fragment.getGraphKey());
+		if (fs == null || fragment.getNumOfNodes() == 0)
+			return containers;
+		ArrayList<Fragment> l = fs.get(fragment.getNodeIndex(0));
+		if (l != null)
+			for (Fragment f : l)
+				if (f.contains(fragment))
+					containers.add(f);
+		return containers;
+	}
+
+	/**
+	 * Orders the patterns by id, as they were added in no fixed order.
+	 */
+	public void sortById() {
+		ArrayList<Pattern> l = new ArrayList<>(patterns);
+		Collections.sort(l, new Comparator<Pattern>() {
+			@Override
+			public int compare(Pattern p1, Pattern p2) {
+				return Integer.compare(p1.getId(), p2.getId());
+			}
+		});
+		patterns = new CopyOnWriteArrayList<>(l);
 	}
 	
-	private boolean containsAll(HashSet<Fragment> g) {
-		for (Pattern p : patterns)
-			if (p.containsAll(g))
-				return true;
+	/**
+	 * @return whether one pattern contains all the fragments of the group,
+	 * looking only at the patterns containing its first fragment
+	 */
+	private synchronized boolean containsAll(HashSet<Fragment> g) {
+		Iterator<Fragment> it = g.iterator();
+		if (!it.hasNext())
+			return !patterns.isEmpty();
+		HashSet<Pattern> candidates = new HashSet<>();
+		for (Fragment f : getContainers(it.next()))
+			candidates.add(patternOfFragment.get(f));
+		while (it.hasNext() && !candidates.isEmpty()) {
+			HashSet<Pattern> ps = new HashSet<>();
+			for (Fragment f : getContainers(it.next())) {
+				Pattern p = patternOfFragment.get(f);
+				if (candidates.contains(p))
+					ps.add(p);
+			}
+			candidates = ps;
+		}
+		return !candidates.isEmpty();
+	}
+
+	/**
+	 * @return whether a pattern other than the given one contains one of its
+	 * fragments
+	 */
+	private synchronized boolean containsOne(Pattern other) {
+		for (Fragment f : other.getFragments())
+			for (Fragment c : getContainers(f))
+				if (patternOfFragment.get(c) != other)
+					return true;
 		return false;
 	}
 	
@@ -41,17 +150,11 @@ public class Lattice {
 		for (int size = Pattern.minSize-1; size < lattices.size(); size++) {
 			Lattice l1 = lattices.get(size);
 			for (Pattern p1 : new ArrayList<Pattern>(l1.getPatterns())) {
-				boolean found = false;
 				for (int i = size; i < lattices.size() - 1; i++) {
-					Lattice l2 = lattices.get(i);
-					for (Pattern p2 : l2.getPatterns()) {
-						if (p2 != p1 && p2.containsOne(p1)) {
-							l1.remove(p1);
-							found = true;
-							break;
-						}
+					if (lattices.get(i).containsOne(p1)) {
+						l1.remove(p1);
+						break;
 					}
-					if (found) break;
 				}
 			}
 		}
@@ -60,9 +163,12 @@ public class Lattice {
 	public static boolean containsAll(ArrayList<Lattice> lattices, HashSet<Fragment> g) {
 		int size = 0;
 		for (Fragment f : g) {
-			size = f.getNodes().size();
+			size = f.getNumOfNodes();
 			break;
 		}
+		synchronized (lattices) {
+			lattices = new ArrayList<>(lattices);
+		}
 		for (int i =  lattices.size() - 1; i >= size-1; i--) {
 			Lattice l = lattices.get(i);
 			if (l.containsAll(g))
@@ -71,9 +177,11 @@ public class Lattice {
 		return false;
 	}
 
-	public void clear() {
+	public synchronized void clear() {
 		for (Pattern p : this.patterns)
 			p.clear();
 		this.patterns.clear();
+		this.fragmentsOfNode.clear();
+		this.patternOfFragment.clear();
 	}
 }
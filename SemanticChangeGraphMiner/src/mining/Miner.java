@@ -5,6 +5,8 @@ package mining;
 
 import groum.GROUMGraph;
 import groum.GROUMNode;
+import groum.GraphStore;
+import groum.LabelDictionary;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import utils.DirectoryHTML;
@@ -17,27 +19,121 @@ import java.io.UnsupportedEncodingException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author hoan
  * 
  */
 public class Miner {
-	private static final String PAIR_SEPARATOR = "~";
+	static final String PAIR_SEPARATOR = "~";
+	public static final int ORDER_SEEDS = 0, ORDER_FREQUENCY = 1;
+	// standard deviations around an estimated support it may still be in
+	private static final double Z = 3;
+	// of a label expected in a sample, for its deviations to be of use
+	private static final int MIN_SAMPLE_GRAPHS = 30;
+	private static final Comparator<Pattern> BY_FREQUENCY = new Comparator<Pattern>() {
+		@Override
+		public int compare(Pattern p1, Pattern p2) {
+			return Integer.compare(p1.getFreq(), p2.getFreq());
+		}
+	};
 
+	private MiningContext context;
 	private int level = 0;
+	private int parallelism = 1;
+	private int order = ORDER_SEEDS;
+	// per seed, 0 for no limit
+	private long seedMillis = 0;
+	private int seedExpansions = 0;
+	private volatile boolean isCancelled = false;
+	private ArrayList<String> overBudgetSeeds = new ArrayList<>();
+	// 0 to keep all patterns
+	private int topK = 0, topMinSize = Pattern.minSize;
+	// the best patterns kept in top-k mode, least frequent first, and the support they raise the minimum to once full
+	private PriorityQueue<Pattern> top = new PriorityQueue<>(11, BY_FREQUENCY);
+	private volatile int topFreq = 0;
 	private String reposPath;
 	private String currDir;
 	private HashMap<String, String> commitEmail = readEmail(new File("T:/github/repos-metadata/"));
 	private HashMap<String, Integer> commitTime = readTime(new File("T:/github/repos-metadata/"));
 
 	public ArrayList<Lattice> lattices = new ArrayList<Lattice>();
+	// of the patterns grown by any seed, with the lowest index of a seed growing each, which seeds after it do not grow again
+	private ConcurrentHashMap<DFSCode, Integer> grownCodes = new ConcurrentHashMap<>();
+	// the patterns kept or dropped as seeds are committed, as the sorted label ids of each, null if not known
+	private ArrayList<int[]> changes = new ArrayList<>();
 	
-	public Miner(int level) {
+	public Miner(MiningContext context, int level) {
 		System.out.println("Mining level " + level);
+		this.context = context;
 		this.level = level;
 	}
 
+	/**
+	 * @param parallelism the number of threads growing seed patterns at once
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param order ORDER_SEEDS to grow the seeds one by one in the order of
+	 * their labels, ORDER_FREQUENCY to extend the most frequent pattern of
+	 * any seed first
+	 */
+	public void setOrder(int order) {
+		this.order = order;
+	}
+
+	/**
+	 * Limits the growth of each seed, which then keeps the pattern it has.
+	 * 
+	 * @param millis the time spent extending its patterns, 0 for no limit
+	 * @param expansions the number of times its patterns are extended, 0
+	 * for no limit
+	 */
+	public void setSeedBudget(long millis, int expansions) {
+		this.seedMillis = millis;
+		this.seedExpansions = expansions;
+	}
+
+	/**
+	 * Keeps only the k most frequent patterns of at least the given size.
+	 * Once there are k, a pattern needs a higher support than the least
+	 * frequent of them to be extended or kept, so branches that cannot make
+	 * it are cut early, and a pattern is kept where its extensions fall
+	 * below it.
+	 * 
+	 * @param k 0 to keep all patterns
+	 */
+	public void setTopK(int k, int minSize) {
+		this.topK = k;
+		this.topMinSize = minSize;
+	}
+
+	/**
+	 * Stops growing seeds after the extensions under way, from any thread.
+	 * Seeds keep the patterns they have and the rest are not started, so
+	 * mining ends with the patterns found so far.
+	 */
+	public void cancel() {
+		isCancelled = true;
+	}
+
+	/**
+	 * @return the seeds of the last mining whose growth was stopped by their
+	 * budget, by their labels
+	 */
+	public ArrayList<String> getOverBudgetSeeds() {
+		return overBudgetSeeds;
+	}
+
 	public String getCurrDir(){
 		return currDir;
 	}
@@ -75,17 +171,16 @@ public class Miner {
 	public ArrayList<GROUMGraph> mine(ArrayList<GROUMGraph> groums, String reposPath) {
 		this.reposPath = reposPath;
 		for (GROUMGraph groum : groums) {
-			groum.deleteAssignmentNodes();
-			//groum.deleteUnaryOperationNodes();
-			groum.collapseLiterals();
+			groum.normalize();
+			groum.freeze();
 		}
-		HashMap<String, HashSet<GROUMNode[]>> nodesOfLabel = new HashMap<>();
+		HashMap<Long, HashSet<GROUMNode[]>> nodesOfLabel = new HashMap<>();
 		for (GROUMGraph groum : groums) {
 			for (GROUMNode node : groum.getNodes()) {
 				if (node.getVersion() != 0) continue;
 				GROUMNode mappedNode = node.getMappedNode();
 				if (mappedNode == null) continue;
-				String label = node.getLabel() + PAIR_SEPARATOR + mappedNode.getLabel();
+				long label = LabelDictionary.pack(node.getLabelId(), mappedNode.getLabelId());
 				HashSet<GROUMNode[]> nodes = nodesOfLabel.get(label);
 				if (nodes == null)
 					nodes = new HashSet<>();
@@ -97,22 +192,441 @@ public class Miner {
 		Lattice l = new Lattice();
 		l.setStep(2);
 		lattices.add(l);
-		for (String label : new HashSet<String>(nodesOfLabel.keySet())) {
+		for (long label : new HashSet<Long>(nodesOfLabel.keySet())) {
 			HashSet<GROUMNode[]> nodes = nodesOfLabel.get(label);
-			if (nodes.size() < Pattern.minFreq || !GROUMNode.isCoreAction(label.split(PAIR_SEPARATOR)[0]))
+			if (nodes.size() < context.getMinFreq() || !GROUMNode.isCoreAction(LabelDictionary.getLabel((int) (label >>> 32))))
 				nodesOfLabel.remove(label);
 		}
 		//System.out.println("Got all first pairs");
-		for (String label : nodesOfLabel.keySet()) {
-			HashSet<GROUMNode[]> pairs = nodesOfLabel.get(label);
-			HashSet<Fragment> fragments = new HashSet<>();
-			for (GROUMNode[] pair : pairs) {
-				Fragment f = new Fragment(pair);
-				fragments.add(f);
+		final HashMap<Long, HashSet<GROUMNode[]>> pairsOfLabel = nodesOfLabel;
+		growSeeds(nodesOfLabel.keySet(), new Seeds() {
+			@Override
+			public int getNumOfFragments(long label) {
+				return pairsOfLabel.get(label).size();
+			}
+
+			@Override
+			public HashSet<Fragment> getFragments(long label, AtomicLong ids) {
+				HashSet<Fragment> fragments = new HashSet<>();
+				for (GROUMNode[] pair : pairsOfLabel.get(label)) {
+					Fragment f = new Fragment(context, ids, pair);
+					fragments.add(f);
+				}
+				return fragments;
+			}
+		}, false);
+		return finish();
+	}
+
+	/**
+	 * Mines the graphs of a store, building only those with a frequent seed
+	 * pair, one seed label at a time. The nodes are scanned in the store.
+	 */
+	public ArrayList<GROUMGraph> mine(final GraphStore store, String reposPath) {
+		this.reposPath = reposPath;
+		context.setStore(store);
+		HashMap<Long, int[]> counts = new HashMap<>();
+		for (int g = 0; g < store.getNumOfGraphs(); g++) {
+			for (int n = 0; n < store.getNumOfNodes(g); n++) {
+				long label = getSeedLabel(store, g, n);
+				if (label == -1) continue;
+				int[] count = counts.get(label);
+				if (count == null)
+					counts.put(label, count = new int[1]);
+				count[0]++;
+			}
+		}
+		HashMap<Long, long[]> nodesOfLabel = new HashMap<>();
+		for (long label : counts.keySet()) {
+			int count = counts.get(label)[0];
+			if (count >= context.getMinFreq() && GROUMNode.isCoreAction(LabelDictionary.getLabel((int) (label >>> 32))))
+				nodesOfLabel.put(label, new long[count]);
+		}
+		counts.clear();
+		HashMap<Long, int[]> sizes = new HashMap<>();
+		for (int g = 0; g < store.getNumOfGraphs(); g++) {
+			for (int n = 0; n < store.getNumOfNodes(g); n++) {
+				long label = getSeedLabel(store, g, n);
+				long[] nodes = label == -1 ? null : nodesOfLabel.get(label);
+				if (nodes == null) continue;
+				int[] size = sizes.get(label);
+				if (size == null)
+					sizes.put(label, size = new int[1]);
+				nodes[size[0]++] = ((long) g << 32) | n;
+			}
+		}
+		lattices.add(new Lattice());
+		Lattice l = new Lattice();
+		l.setStep(2);
+		lattices.add(l);
+		final HashMap<Long, long[]> storedNodesOfLabel = nodesOfLabel;
+		growSeeds(nodesOfLabel.keySet(), new Seeds() {
+			@Override
+			public int getNumOfFragments(long label) {
+				return storedNodesOfLabel.get(label).length;
+			}
+
+			@Override
+			public HashSet<Fragment> getFragments(long label, AtomicLong ids) {
+				HashSet<Fragment> fragments = new HashSet<>();
+				for (long node : storedNodesOfLabel.get(label)) {
+					GROUMGraph g = store.get((int) (node >>> 32));
+					int index = (int) node;
+					fragments.add(new Fragment(context, ids, new GROUMNode[]{g.getNode(index), g.getNode(g.getMappedNode(index))}));
+				}
+				return fragments;
 			}
-			Pattern p = new Pattern(fragments, fragments.size());
-			extend(p);
+		}, false);
+		System.out.println(store.getStatistics());
+		return finish();
+	}
+
+	/**
+	 * @return the packed labels of an old node and its mapped node, -1 if the
+	 * node cannot seed a pattern
+	 */
+	private static long getSeedLabel(GraphStore store, int g, int n) {
+		if (store.getVersion(g, n) != 0) return -1;
+		int mapped = store.getMappedNode(g, n);
+		if (mapped < 0) return -1;
+		return LabelDictionary.pack(store.getLabelId(g, n), store.getLabelId(g, mapped));
+	}
+
+	private interface Seeds {
+		int getNumOfFragments(long label);
+
+		HashSet<Fragment> getFragments(long label, AtomicLong ids);
+	}
+
+	/**
+	 * Grows the patterns of the seed labels from a worklist, one extension
+	 * at a time, on as many threads as allowed. A seed goes back on the
+	 * worklist after each extension, until it finds no more, runs out of
+	 * budget or mining is cancelled. Seeds only share the lattices, where one
+	 * seed may find a group already covered by the patterns of another, the
+	 * support of the top k and the codes of the patterns grown, where it
+	 * stops at one an earlier seed in the order of labels grew. Seeds done
+	 * are committed in the order of their labels, see
+	 * {@link #commit(ArrayList, PriorityQueue, int[])}, so the patterns are
+	 * the same on any number of threads as had the seeds been grown one by
+	 * one. Patterns are numbered once all seeds are done, in the order of
+	 * their seed labels and then the order each seed found them.
+	 */
+	private void growSeeds(Collection<Long> labels, final Seeds seeds, final boolean isSuper) {
+		ArrayList<Long> sorted = new ArrayList<>(labels);
+		Collections.sort(sorted);
+		ArrayList<Growth> growths = new ArrayList<>();
+		final PriorityQueue<Growth> worklist = new PriorityQueue<>(Math.max(1, sorted.size()), order == ORDER_FREQUENCY ? Growth.FREQUENCY_ORDER : Growth.SEED_ORDER);
+		for (long label : sorted) {
+			Growth g = new Growth(growths.size(), label, seeds.getNumOfFragments(label));
+			growths.add(g);
+			worklist.add(g);
 		}
+		top.clear();
+		topFreq = 0;
+		grownCodes.clear();
+		changes.clear();
+		// the growths under way, and the first not yet committed
+		final int[] counts = {0, 0};
+		final ArrayList<Growth> seedGrowths = growths;
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				Growth g;
+				while ((g = take(worklist, counts)) != null) {
+					boolean isGrowing = false;
+					try {
+						isGrowing = grow(g, seeds, isSuper);
+					} finally {
+						put(worklist, counts, g, isGrowing, seedGrowths);
+					}
+				}
+			}
+		};
+		if (parallelism > 1) {
+			ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+			ArrayList<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < parallelism; i++)
+				futures.add(pool.submit(worker));
+			pool.shutdown();
+			Throwable failure = null;
+			boolean isInterrupted = false;
+			for (Future<?> future : futures) {
+				while (true) {
+					try {
+						future.get();
+						break;
+					} catch (InterruptedException e) {
+						// the extensions under way still finish
+						cancel();
+						isInterrupted = true;
+					} catch (ExecutionException e) {
+						cancel();
+						if (failure == null)
+							failure = e.getCause();
+						break;
+					}
+				}
+			}
+			if (isInterrupted)
+				Thread.currentThread().interrupt();
+			if (failure != null)
+				throw new RuntimeException(failure);
+		} else
+			worker.run();
+		overBudgetSeeds = new ArrayList<>();
+		HashSet<Pattern> kept = new HashSet<>(top);
+		for (Growth g : growths) {
+			if (g.isOverBudget)
+				overBudgetSeeds.add(g.getSeed());
+			for (Pattern p : g.found)
+				if (topK <= 0 || kept.contains(p))
+					p.setId();
+		}
+		if (!overBudgetSeeds.isEmpty())
+			System.out.println(overBudgetSeeds.size() + " of " + growths.size() + " seeds hit their budget: " + overBudgetSeeds);
+		if (topK > 0)
+			System.out.println("Kept the top " + top.size() + " of " + topK + " patterns, minimum support raised to " + getMinFreq());
+		for (Lattice lattice : lattices)
+			lattice.sortById();
+	}
+
+	/**
+	 * @return the first growth on the worklist, waiting while it is empty and
+	 * others are under way, null once all are done
+	 */
+	private Growth take(PriorityQueue<Growth> worklist, int[] counts) {
+		synchronized (worklist) {
+			while (worklist.isEmpty() && counts[0] > 0) {
+				try {
+					worklist.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+			Growth g = worklist.poll();
+			if (g != null) {
+				counts[0]++;
+				if (g.pattern == null) {
+					g.start = changes.size();
+					g.startFreq = topFreq;
+				}
+			}
+			return g;
+		}
+	}
+
+	/**
+	 * Puts a growth taken back on the worklist, or commits the seeds done if
+	 * it is done.
+	 */
+	private void put(PriorityQueue<Growth> worklist, int[] counts, Growth g, boolean isGrowing, ArrayList<Growth> growths) {
+		synchronized (worklist) {
+			if (isGrowing)
+				worklist.add(g);
+			else {
+				g.isDone = true;
+				commit(growths, worklist, counts);
+			}
+			counts[0]--;
+			worklist.notifyAll();
+		}
+	}
+
+	/**
+	 * Commits the seeds done, in the order of their labels up to the first
+	 * one not done, keeping their patterns. A seed sees only the patterns and
+	 * codes of the seeds committed, which are all before it once it is
+	 * committed itself; it is grown again if a seed committed since it
+	 * started might have changed what it saw, or if the claim it stopped at
+	 * did not hold. A seed that grew a code an earlier seed claims would have
+	 * stopped there, so it keeps no pattern and drops its claims from there.
+	 */
+	private void commit(ArrayList<Growth> growths, PriorityQueue<Growth> worklist, int[] counts) {
+		while (counts[1] < growths.size()) {
+			Growth g = growths.get(counts[1]);
+			if (!g.isDone)
+				return;
+			if (isAffected(g) || (g.stop != null && !isClaimed(g.stop, g.index) && !isOvertaken(g))) {
+				regrow(g);
+				worklist.add(g);
+				return;
+			}
+			if (isOvertaken(g)) {
+				int cut = 0;
+				while (!isClaimed(g.codes.get(cut), g.index))
+					cut++;
+				for (DFSCode code : g.codes.subList(cut, g.codes.size()))
+					grownCodes.remove(code, g.index);
+				g.codes.subList(cut, g.codes.size()).clear();
+				for (Pattern p : g.found)
+					p.clear();
+				g.found.clear();
+			} else {
+				for (DFSCode code : g.codes)
+					claim(code, g.index);
+				ArrayList<Pattern> kept = new ArrayList<>();
+				for (Pattern p : g.found) {
+					if (topK > 0) {
+						if (keepTop(p))
+							kept.add(p);
+					} else {
+						changes.add(getLabelIds(p));
+						p.add2Lattice(lattices);
+						kept.add(p);
+					}
+				}
+				g.found.clear();
+				g.found.addAll(kept);
+			}
+			counts[1]++;
+		}
+	}
+
+	/**
+	 * @return whether a seed committed since the seed was started might have
+	 * changed the top support or the patterns covering a group of the seed,
+	 * which has a fragment holding the two labels of the seed in each of them
+	 */
+	private boolean isAffected(Growth g) {
+		if (topK > 0 && topFreq != g.startFreq)
+			return true;
+		int first = (int) (g.label >>> 32), second = (int) g.label;
+		for (int i = g.start; i < changes.size(); i++) {
+			int[] ids = changes.get(i);
+			if (ids == null || Arrays.binarySearch(ids, first) >= 0 && Arrays.binarySearch(ids, second) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the sorted label ids of the representative of a pattern, null
+	 * if it has none
+	 */
+	private static int[] getLabelIds(Pattern p) {
+		Fragment rep = p.getRepresentative();
+		if (rep == null)
+			return null;
+		int[] ids = new int[rep.getNumOfNodes()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = rep.getNode(i).getLabelId();
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Drops what a seed did, its claims and patterns, to grow it again.
+	 */
+	private void regrow(Growth g) {
+		for (DFSCode code : g.codes)
+			grownCodes.remove(code, g.index);
+		for (Pattern p : g.found)
+			p.clear();
+		if (g.pattern != null)
+			g.pattern.clear();
+		g.reset();
+	}
+
+	/**
+	 * Extends the pattern of a seed once, building it first for a new seed.
+	 * A seed out of budget, or any once mining is cancelled, keeps the
+	 * pattern it has instead, and one too rare for the top k is dropped.
+	 * 
+	 * @return whether the seed is to be extended again
+	 */
+	private boolean grow(Growth g, Seeds seeds, boolean isSuper) {
+		if (g.pattern == null) {
+			// the fragments bound the support of any pattern of the seed
+			if (isCancelled || isOutOfTop(g.freq))
+				return false;
+			HashSet<Fragment> fragments = seeds.getFragments(g.label, g.fragmentIds);
+			g.pattern = new Pattern(context, fragments, fragments.size());
+		} else if (isOutOfTop(g.freq)) {
+			g.pattern.clear();
+			return false;
+		} else if (isCancelled || !hasBudget(g)) {
+			g.isOverBudget = !isCancelled;
+			keep(g.pattern, g.found);
+			return false;
+		}
+		long start = System.nanoTime();
+		Pattern xp = isSuper ? superExtend(g) : extend(g);
+		g.nanos += System.nanoTime() - start;
+		g.expansions++;
+		g.pattern = xp;
+		if (xp == null)
+			return false;
+		g.freq = xp.getFreq();
+		return true;
+	}
+
+	private boolean hasBudget(Growth g) {
+		return (seedExpansions <= 0 || g.expansions < seedExpansions)
+				&& (seedMillis <= 0 || g.nanos < seedMillis * 1000000);
+	}
+
+	/**
+	 * Keeps a pattern for the seed, to be added to the lattices once the
+	 * seed is committed.
+	 */
+	private void keep(Pattern pattern, ArrayList<Pattern> found) {
+		if (!pattern.isAChange())
+			return;
+		found.add(pattern);
+		// not to hold the graphs while the seeds before it are grown
+		pattern.release();
+	}
+
+	/**
+	 * Keeps a pattern if it is among the top k so far, dropping the least
+	 * frequent one if there are k already, and raises the minimum support to
+	 * beat the least frequent one left.
+	 * 
+	 * @return whether the pattern is kept
+	 */
+	private boolean keepTop(Pattern pattern) {
+		if (pattern.getSize() < topMinSize) {
+			pattern.clear();
+			return false;
+		}
+		synchronized (top) {
+			if (top.size() >= topK) {
+				if (pattern.getFreq() <= top.peek().getFreq()) {
+					pattern.clear();
+					return false;
+				}
+				Pattern dropped = top.poll();
+				changes.add(getLabelIds(dropped));
+				lattices.get(dropped.getSize() - 1).remove(dropped);
+				dropped.clear();
+			}
+			top.add(pattern);
+			changes.add(getLabelIds(pattern));
+			pattern.add2Lattice(lattices);
+			if (top.size() >= topK)
+				topFreq = top.peek().getFreq() + 1;
+			return true;
+		}
+	}
+
+	/**
+	 * @return whether no pattern of that support can be among the top k
+	 */
+	private boolean isOutOfTop(int freq) {
+		return topK > 0 && freq < getMinFreq();
+	}
+
+	/**
+	 * @return the support a pattern needs, above that of the least frequent
+	 * of the top patterns once there are k of them
+	 */
+	private int getMinFreq() {
+		return Math.max(context.getMinFreq(), topFreq);
+	}
+
+	private ArrayList<GROUMGraph> finish() {
 		System.out.println("Done mining level " + this.level);
 		Lattice.filter(lattices);
 		System.out.println("Done filtering level " + this.level);
@@ -471,8 +985,7 @@ public class Miner {
 							return n1.getLabel().compareTo(n2.getLabel());
 						}
 					});
-					Fragment af = new Fragment(nodes);
-					af.setGraph(g);
+					Fragment af = new Fragment(context, g, nodes);
 					String label = nodes.toString();
 					HashSet<Fragment> fragments = labelFragments.get(label);
 					if (fragments == null) {
@@ -486,33 +999,13 @@ public class Miner {
 				HashSet<HashSet<Fragment>> groups = new HashSet<>();
 				for (String label : labelFragments.keySet()) {
 					HashSet<Fragment> fragments = labelFragments.get(label);
-					HashMap<Integer, HashSet<Fragment>> buckets = hash(fragments );
-					for (int h : buckets.keySet()) {
-						HashSet<Fragment> bucket = buckets.get(h);
-						while (!bucket.isEmpty()) {
-							Fragment f = null;
-							for (Fragment fragment : bucket) {
-								f = fragment;
-								break;
-							}
-							HashSet<Fragment> group = new HashSet<>();
-							group.add(f);
-							bucket.remove(f);
-							for (Fragment g : new HashSet<Fragment>(bucket)) {
-								if (f.getVector().equals(g.getVector())) {
-									group.add(g);
-									bucket.remove(g);
-								}
-							}
-							groups.add(group);
-						}
-						bucket.clear();
-					}
+					for (ArrayList<Fragment> group : groupByVector(fragments))
+						groups.add(new HashSet<Fragment>(group));
 					fragments.clear();
 				}
 				ArrayList<ArrayList<String>> patternInfo = new ArrayList<>();
 				for (HashSet<Fragment> g : groups) {
-					Pattern p = new Pattern(g, g.size());
+					Pattern p = new Pattern(context, g, g.size());
 					p.setId();
 					printOutResults(dir, step, p, patternInfo, true);
 				}
@@ -529,9 +1022,12 @@ public class Miner {
 	}
 
 	public ArrayList<GROUMGraph> superMine(ArrayList<GROUMGraph> groums) {
-		Pattern.minFreq = 2;
-		Pattern.mode = 0;
-		HashMap<String, HashSet<GROUMNode[]>> nodesOfLabel = new HashMap<>();
+		// pattern graphs are mined within themselves and a pair of them already repeats
+		context.setMinFreq(2);
+		context.setMode(MiningContext.MODE_WITHIN);
+		for (GROUMGraph groum : groums)
+			groum.freeze();
+		HashMap<Long, HashSet<GROUMNode[]>> nodesOfLabel = new HashMap<>();
 		for (GROUMGraph groum : groums) {
 			for (GROUMNode node : groum.getNodes()) {
 				if (node.getVersion() != 0) continue;
@@ -540,7 +1036,7 @@ public class Miner {
 					GROUMNode mappedNode = pairedNode.getMappedNode();
 					if (mappedNode != null && mappedNode != node)
 						continue;
-					String label = node.getLabel() + PAIR_SEPARATOR + pairedNode.getLabel();
+					long label = LabelDictionary.pack(node.getLabelId(), pairedNode.getLabelId());
 					HashSet<GROUMNode[]> nodes = nodesOfLabel.get(label);
 					if (nodes == null)
 						nodes = new HashSet<>();
@@ -553,25 +1049,32 @@ public class Miner {
 		Lattice l = new Lattice();
 		l.setStep(2);
 		lattices.add(l);
-		for (String label : new HashSet<String>(nodesOfLabel.keySet())) {
+		for (long label : new HashSet<Long>(nodesOfLabel.keySet())) {
 			HashSet<GROUMNode[]> nodes = nodesOfLabel.get(label);
-			String[] labels = label.split(PAIR_SEPARATOR);
-			if (nodes.size() < Pattern.minFreq
+			String[] labels = {LabelDictionary.getLabel((int) (label >>> 32)), LabelDictionary.getLabel((int) label)};
+			if (nodes.size() < context.getMinFreq()
 					|| (!GROUMNode.isCoreAction(labels[0]) && !GROUMNode.isControl(labels[0]))
 					|| (!GROUMNode.isCoreAction(labels[1]) && !GROUMNode.isControl(labels[1])))
 				nodesOfLabel.remove(label);
 		}
 		//System.out.println("Got all first pairs");
-		for (String label : nodesOfLabel.keySet()) {
-			HashSet<GROUMNode[]> pairs = nodesOfLabel.get(label);
-			HashSet<Fragment> fragments = new HashSet<>();
-			for (GROUMNode[] pair : pairs) {
-				Fragment f = new Fragment(pair);
-				fragments.add(f);
+		final HashMap<Long, HashSet<GROUMNode[]>> pairsOfLabel = nodesOfLabel;
+		growSeeds(nodesOfLabel.keySet(), new Seeds() {
+			@Override
+			public int getNumOfFragments(long label) {
+				return pairsOfLabel.get(label).size();
 			}
-			Pattern p = new Pattern(fragments, fragments.size());
-			superExtend(p);
-		}
+
+			@Override
+			public HashSet<Fragment> getFragments(long label, AtomicLong ids) {
+				HashSet<Fragment> fragments = new HashSet<>();
+				for (GROUMNode[] pair : pairsOfLabel.get(label)) {
+					Fragment f = new Fragment(context, ids, pair);
+					fragments.add(f);
+				}
+				return fragments;
+			}
+		}, true);
 		System.out.println("Done mining level " + this.level);
 		Lattice.filter(lattices);
 		System.out.println("Done filtering level " + this.level);
@@ -594,11 +1097,18 @@ public class Miner {
 		return names.toString();
 	}
 	
-	private void superExtend(Pattern pattern) {
-		HashMap<String, HashMap<Fragment, HashSet<ArrayList<GROUMNode>>>> labelFragmentExtendableNodes = new HashMap<>();
+	/**
+	 * Extends a pattern of pattern graphs by its most frequent group, or
+	 * keeps it if there is none.
+	 * 
+	 * @return the extended pattern, null if there is none
+	 */
+	private Pattern superExtend(Growth g) {
+		Pattern pattern = g.pattern;
+		HashMap<Long, HashMap<Fragment, HashSet<ArrayList<GROUMNode>>>> labelFragmentExtendableNodes = new HashMap<>();
 		for (Fragment f : pattern.getFragments()) {
-			HashMap<String, HashSet<ArrayList<GROUMNode>>> xns = f.superExtend();
-			for (String label : xns.keySet()) {
+			HashMap<Long, HashSet<ArrayList<GROUMNode>>> xns = f.superExtend();
+			for (long label : xns.keySet()) {
 				HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens = labelFragmentExtendableNodes.get(label);
 				if (fens == null) {
 					fens = new HashMap<>();
@@ -607,34 +1117,16 @@ public class Miner {
 				fens.put(f, xns.get(label));
 			}
 		}
-		for (String label : new HashSet<String>(labelFragmentExtendableNodes.keySet())) {
-			HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens = labelFragmentExtendableNodes.get(label);
-			if (fens.size() < Pattern.minFreq)
-				labelFragmentExtendableNodes.remove(label);
-		}
 		HashSet<Fragment> group = new HashSet<>();
-		int xfreq = Pattern.minFreq - 1;
-		for (String label : labelFragmentExtendableNodes.keySet()) {
-			HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens = labelFragmentExtendableNodes.get(label);
-			HashSet<Fragment> xfs = new HashSet<>();
-			for (Fragment f : fens.keySet()) {
-				for (ArrayList<GROUMNode> ens : fens.get(f)) {
-					Fragment xf = new Fragment(f, ens);
-					xfs.add(xf);
-				}
+		double[] rate = {pattern.getSampleRate()};
+		int xfreq = mineExtensions(group, rate, labelFragmentExtendableNodes, pattern);
+		if (xfreq >= getMinFreq()) {
+			if (!isNew(group, g)) {
+				pattern.clear();
+				return null;
 			}
-			boolean isGiant = isGiant(xfs, pattern);
-			//System.out.println("\tTrying with label " + label + ": " + xfs.size());
-			HashSet<Fragment> g = new HashSet<>();
-			int freq = mine(g, xfs, pattern, isGiant);
-			if (freq > xfreq && !Lattice.containsAll(lattices, g)) {
-				group = g;
-				xfreq = freq;
-			}
-		}
-		//System.out.println("Done trying all labels");
-		if (xfreq >= Pattern.minFreq) {
-			Pattern xp = new Pattern(group, xfreq);
+			Pattern xp = new Pattern(context, group, xfreq);
+			xp.setSampleRate(rate[0]);
 			Fragment rep = null, xrep = null;
 			for (Fragment f : group) {
 				xrep = f;
@@ -673,21 +1165,29 @@ public class Miner {
 					+ " with label " + labels
 					+ " occurences: " + group.size()
 					+ " frequency: " + xfreq
-					+ " patterns: " + Pattern.nextID 
-					+ " fragments: " + Fragment.numofFragments 
-					+ " next fragment: " + Fragment.nextFragmentId);*/
+					+ " patterns: " + context.nextPatternId 
+					+ " fragments: " + context.getNumOfFragments() 
+					+ " next fragment: " + context.nextFragmentId);*/
 			pattern.clear();
-			superExtend(xp);
 			//System.out.println("}");
-		} else if (pattern.isAChange())
-			pattern.add2Lattice(lattices);
+			return xp;
+		}
+		keep(pattern, g.found);
+		return null;
 	}
 	
-	private void extend(Pattern pattern) {
-		HashMap<String, HashMap<Fragment, HashSet<ArrayList<GROUMNode>>>> labelFragmentExtendableNodes = new HashMap<>();
+	/**
+	 * Extends a pattern by its most frequent group, or keeps it if there is
+	 * none.
+	 * 
+	 * @return the extended pattern, null if there is none
+	 */
+	private Pattern extend(Growth g) {
+		Pattern pattern = g.pattern;
+		HashMap<Long, HashMap<Fragment, HashSet<ArrayList<GROUMNode>>>> labelFragmentExtendableNodes = new HashMap<>();
 		for (Fragment f : pattern.getFragments()) {
-			HashMap<String, HashSet<ArrayList<GROUMNode>>> xns = f.extend();
-			for (String label : xns.keySet()) {
+			HashMap<Long, HashSet<ArrayList<GROUMNode>>> xns = f.extend();
+			for (long label : xns.keySet()) {
 				HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens = labelFragmentExtendableNodes.get(label);
 				if (fens == null) {
 					fens = new HashMap<>();
@@ -696,34 +1196,16 @@ public class Miner {
 				fens.put(f, xns.get(label));
 			}
 		}
-		for (String label : new HashSet<String>(labelFragmentExtendableNodes.keySet())) {
-			HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens = labelFragmentExtendableNodes.get(label);
-			if (fens.size() < Pattern.minFreq)
-				labelFragmentExtendableNodes.remove(label);
-		}
 		HashSet<Fragment> group = new HashSet<>();
-		int xfreq = Pattern.minFreq - 1;
-		for (String label : labelFragmentExtendableNodes.keySet()) {
-			HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens = labelFragmentExtendableNodes.get(label);
-			HashSet<Fragment> xfs = new HashSet<>();
-			for (Fragment f : fens.keySet()) {
-				for (ArrayList<GROUMNode> ens : fens.get(f)) {
-					Fragment xf = new Fragment(f, ens);
-					xfs.add(xf);
-				}
-			}
-			boolean isGiant = isGiant(xfs, pattern);
-			//System.out.println("\tTrying with label " + label + ": " + xfs.size());
-			HashSet<Fragment> g = new HashSet<>();
-			int freq = mine(g, xfs, pattern, isGiant);
-			if (freq > xfreq && !Lattice.containsAll(lattices, g)) {
-				group = g;
-				xfreq = freq;
+		double[] rate = {pattern.getSampleRate()};
+		int xfreq = mineExtensions(group, rate, labelFragmentExtendableNodes, pattern);
+		if (xfreq >= getMinFreq()) {
+			if (!isNew(group, g)) {
+				pattern.clear();
+				return null;
 			}
-		}
-		//System.out.println("Done trying all labels");
-		if (xfreq >= Pattern.minFreq) {
-			Pattern xp = new Pattern(group, xfreq);
+			Pattern xp = new Pattern(context, group, xfreq);
+			xp.setSampleRate(rate[0]);
 			ArrayList<String> labels = new ArrayList<>();
 			Fragment rep = null, xrep = null;
 			for (Fragment f : group) {
@@ -736,8 +1218,8 @@ public class Miner {
 			}
 			if (rep == null || xrep == null)
 				throw new NullPointerException();
-			for (int j = rep.getNodes().size(); j < xrep.getNodes().size(); j++)
-				labels.add(xrep.getNodes().get(j).getLabel());
+			for (int j = rep.getNumOfNodes(); j < xrep.getNumOfNodes(); j++)
+				labels.add(xrep.getNode(j).getLabel());
 			/*System.out.println("{Extending pattern of size " + rep.getNodes().size()
 					+ " " + rep.getNodes()
 					+ " occurences: " + pattern.getFragments().size()
@@ -745,25 +1227,315 @@ public class Miner {
 					+ " with label " + labels
 					+ " occurences: " + group.size()
 					+ " frequency: " + xfreq
-					+ " patterns: " + Pattern.nextID 
-					+ " fragments: " + Fragment.numofFragments 
-					+ " next fragment: " + Fragment.nextFragmentId);*/
+					+ " patterns: " + context.nextPatternId 
+					+ " fragments: " + context.getNumOfFragments() 
+					+ " next fragment: " + context.nextFragmentId);*/
 			pattern.clear();
-			extend(xp);
 			//System.out.println("}");
-		} else if (pattern.isAChange())
-			pattern.add2Lattice(lattices);
+			return xp;
+		}
+		keep(pattern, g.found);
+		return null;
+	}
+
+	/**
+	 * Claims the pattern of a group by its DFS code for a seed. Seeds growing
+	 * into isomorphic patterns, by adding the same nodes in different orders,
+	 * would grow them the same way again, so only the earliest seed in the
+	 * order of labels goes on, as if the seeds were grown one by one.
+	 * 
+	 * @return false if the pattern is claimed by an earlier seed
+	 */
+	private boolean isNew(HashSet<Fragment> group, Growth g) {
+		DFSCode code = DFSCode.of(group.iterator().next());
+		if (code == null)
+			return true;
+		if (!claim(code, g.index)) {
+			g.stop = code;
+			return false;
+		}
+		g.codes.add(code);
+		return true;
+	}
+
+	/**
+	 * Claims a code for a seed unless an earlier seed claims it.
+	 * 
+	 * @return false if an earlier seed claims it
+	 */
+	private boolean claim(DFSCode code, int index) {
+		while (true) {
+			Integer claim = grownCodes.putIfAbsent(code, index);
+			if (claim == null || claim == index)
+				return true;
+			if (claim < index)
+				return false;
+			if (grownCodes.replace(code, claim, index))
+				return true;
+		}
+	}
+
+	private boolean isClaimed(DFSCode code, int index) {
+		Integer claim = grownCodes.get(code);
+		return claim != null && claim < index;
+	}
+
+	/**
+	 * @return whether an earlier seed claimed one of the codes the seed
+	 * grew, after the seed had gone on from it
+	 */
+	private boolean isOvertaken(Growth g) {
+		for (DFSCode code : g.codes)
+			if (isClaimed(code, g.index))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Finds the most frequent group of the extensions of a pattern not yet
+	 * covered by the lattices, over all labels. Labels are tried from the
+	 * highest upper bound of their frequency down, building their extensions
+	 * only while the bound can still beat the best group. A group as frequent
+	 * as the best one wins if its label comes first in the order of the label
+	 * ids, as if labels were tried in that order.
+	 * 
+	 * Frequencies are of all graphs, scaled up from the sample of graphs the
+	 * fragments of a pattern are from.
+	 * 
+	 * @param rate the sample rate of the pattern, set to that of the group
+	 * @return the frequency of the group, below the minimum if there is none
+	 */
+	private int mineExtensions(HashSet<Fragment> result, double[] rate, HashMap<Long, HashMap<Fragment, HashSet<ArrayList<GROUMNode>>>> labelFragmentExtendableNodes, Pattern pattern) {
+		double r = pattern.getSampleRate();
+		int minFreq = getMinFreq(), minCount = getMinCount(minFreq, pattern);
+		ArrayList<Long> labels = new ArrayList<>();
+		final HashMap<Long, Integer> bounds = new HashMap<>(), positions = new HashMap<>();
+		ArrayList<Long> keys = new ArrayList<>(labelFragmentExtendableNodes.keySet());
+		Collections.sort(keys, new Comparator<Long>() {
+			@Override
+			public int compare(Long l1, Long l2) {
+				return context.compare(l1, l2);
+			}
+		});
+		for (long label : keys) {
+			HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens = labelFragmentExtendableNodes.get(label);
+			if (fens.size() < minCount)
+				continue;
+			positions.put(label, labels.size());
+			bounds.put(label, scale(getFrequencyBound(fens), r));
+			labels.add(label);
+		}
+		Collections.sort(labels, new Comparator<Long>() {
+			@Override
+			public int compare(Long l1, Long l2) {
+				return Integer.compare(bounds.get(l2), bounds.get(l1));
+			}
+		});
+		HashSet<Fragment> group = new HashSet<>();
+		int xfreq = minFreq - 1, xposition = -1;
+		double xrate = r;
+		for (long label : labels) {
+			int bound = bounds.get(label), position = positions.get(label);
+			if (bound < xfreq)
+				break;
+			if (bound == xfreq && (xposition < 0 || position > xposition))
+				continue;
+			HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens = labelFragmentExtendableNodes.get(label);
+			HashSet<Fragment> g = new HashSet<>(), xfs = new HashSet<>();
+			double[] grate = {r};
+			int freq = estimate(g, grate, xfs, fens, pattern, minFreq);
+			if (freq < 0) {
+				boolean isGiant = isGiant(xfs, pattern);
+				//System.out.println("\tTrying with label " + label + ": " + xfs.size());
+				int count = mine(g, xfs, pattern, isGiant, minCount);
+				freq = count < minCount ? minFreq - 1 : scale(count, r);
+			}
+			if ((freq > xfreq || (freq == xfreq && xposition >= 0 && position < xposition)) && !Lattice.containsAll(lattices, g)) {
+				group = g;
+				xfreq = freq;
+				xposition = position;
+				xrate = grate[0];
+			}
+		}
+		//System.out.println("Done trying all labels");
+		result.addAll(group);
+		rate[0] = xrate;
+		return xfreq;
+	}
+
+	/**
+	 * Estimates the support of the groups of the extensions of a label, if
+	 * there are more than the maximum frequency, from the extensions in a
+	 * sample of the graphs, of about the sample size but at least
+	 * MIN_SAMPLE_GRAPHS graphs. The sample is drawn by a key of each graph,
+	 * so the graphs of a smaller sample are in every larger one. Support is
+	 * estimated as the count in the sample over its rate, give or take Z
+	 * standard deviations. The group surely above the minimum with the
+	 * highest estimate wins, unless a group whose range takes in the minimum,
+	 * or one missing from the sample, could beat it; then all extensions are
+	 * built and counted. Not done in the cross modes, whose entities do not
+	 * add up over graphs.
+	 * 
+	 * @param rate the sample rate of the pattern, set to that of the group
+	 * @param xfs to add all the extensions to if they have to be counted
+	 * @return the estimated frequency of the group, -1 if the extensions have
+	 * to be counted
+	 */
+	private int estimate(HashSet<Fragment> result, double[] rate, HashSet<Fragment> xfs, HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens, Pattern pattern, int minFreq) {
+		double r = 1;
+		if (context.getSampleSize() > 0 && context.getMode() <= 0 && pattern.getSize() > 1) {
+			int n = 0;
+			HashSet<GROUMGraph> graphs = new HashSet<>();
+			for (Fragment f : fens.keySet()) {
+				n += fens.get(f).size();
+				graphs.add(f.getGraph());
+			}
+			if (n > context.getMaxFreq())
+				r = Math.max((double) context.getSampleSize() / n, (double) MIN_SAMPLE_GRAPHS / graphs.size());
+		}
+		if (r >= 1) {
+			addExtensions(xfs, fens, 0, 1);
+			return -1;
+		}
+		r *= rate[0];
+		ArrayList<Fragment> sample = new ArrayList<>();
+		addExtensions(sample, fens, 0, r);
+		HashSet<Fragment> best = null;
+		double xestimate = 0, upper = 0;
+		int maxCount = 1;
+		for (ArrayList<Fragment> fs : groupByVector(sample)) {
+			HashSet<Fragment> group = new HashSet<>(fs);
+			removeDuplicates(group);
+			double count = 0, squares = 0;
+			HashMap<GROUMGraph, ArrayList<Fragment>> fragmentsOfGraph = getFragmentsOfGraph(group);
+			for (GROUMGraph g : fragmentsOfGraph.keySet()) {
+				int c = count(g, fragmentsOfGraph.get(g), group);
+				count += c;
+				squares += c * c;
+				maxCount = Math.max(maxCount, c);
+			}
+			double estimate = count / r, deviation = Math.sqrt(squares * (1 - r)) / r;
+			if (estimate - Z * deviation >= minFreq) {
+				if (estimate > xestimate) {
+					best = group;
+					xestimate = estimate;
+				}
+			} else
+				upper = Math.max(upper, estimate + Z * deviation);
+		}
+		// a group missing from the sample is in about Z * Z / r graphs at most
+		upper = Math.max(upper, Z * Z / r * maxCount);
+		if (upper >= Math.max(xestimate, minFreq)) {
+			xfs.addAll(sample);
+			addExtensions(xfs, fens, r, 1);
+			return -1;
+		}
+		if (best == null)
+			return minFreq - 1;
+		for (Fragment f : best)
+			f.setGenFragmen(null);
+		result.addAll(best);
+		rate[0] = r;
+		return (int) Math.round(xestimate);
+	}
+
+	/**
+	 * Builds the extensions of the fragments in the graphs of sample keys
+	 * from inclusive to exclusive, all of them from 0 to 1.
+	 */
+	private static void addExtensions(Collection<Fragment> xfs, HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens, double from, double to) {
+		for (Fragment f : fens.keySet()) {
+			if (from > 0 || to < 1) {
+				double key = getSampleKey(f.getGraph());
+				if (key < from || key >= to)
+					continue;
+			}
+			for (ArrayList<GROUMNode> ens : fens.get(f)) {
+				Fragment xf = new Fragment(f, ens);
+				xfs.add(xf);
+			}
+		}
+	}
+
+	/**
+	 * @return a key of the graph in [0, 1), the same in every run
+	 */
+	private static double getSampleKey(GROUMGraph g) {
+		long h = (g.getProject() + "/" + g.getName()).hashCode() * 0x9E3779B97F4A7C15L;
+		h ^= h >>> 29;
+		h *= 0xBF58476D1CE4E5B9L;
+		h ^= h >>> 32;
+		return (h >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @return the count over the sample rate
+	 */
+	private static int scale(int count, double rate) {
+		return rate == 1 ? count : (int) Math.round(count / rate);
+	}
+
+	/**
+	 * @return the count of fragments in the sample of a pattern for a
+	 * frequency of the minimum
+	 */
+	private static int getMinCount(int minFreq, Pattern pattern) {
+		return (int) Math.ceil(minFreq * pattern.getSampleRate());
+	}
+
+	/**
+	 * @return an upper bound of the frequency of any group of the extensions,
+	 * counted without building them
+	 */
+	private int getFrequencyBound(HashMap<Fragment, HashSet<ArrayList<GROUMNode>>> fens) {
+		if (context.getMode() > 0) {
+			HashSet<String> entities = new HashSet<>();
+			for (Fragment f : fens.keySet())
+				entities.add(getEntity(f.getGraph()));
+			return entities.size();
+		}
+		// extensions counted in a graph share no core action, while those of a fragment all have its core actions
+		int bound = 0;
+		HashMap<GROUMGraph, long[]> coreActionsOfGraph = new HashMap<>();
+		HashMap<GROUMGraph, int[]> parentsOfGraph = new HashMap<>();
+		for (Fragment f : fens.keySet()) {
+			int n = f.getNumOfCoreActions();
+			if (n == 0) {
+				bound += fens.get(f).size();
+				continue;
+			}
+			GROUMGraph g = f.getGraph();
+			long[] bits = coreActionsOfGraph.get(g);
+			int[] parents = parentsOfGraph.get(g);
+			if (bits == null) {
+				bits = new long[g.getCoreActions().length];
+				coreActionsOfGraph.put(g, bits);
+				parents = new int[]{0, n};
+				parentsOfGraph.put(g, parents);
+			}
+			f.addCoreActions(bits);
+			parents[0]++;
+			parents[1] = Math.min(parents[1], n);
+		}
+		for (GROUMGraph g : coreActionsOfGraph.keySet()) {
+			int n = 0;
+			for (long word : coreActionsOfGraph.get(g))
+				n += Long.bitCount(word);
+			int[] parents = parentsOfGraph.get(g);
+			bound += Math.min(parents[0], n / parents[1]);
+		}
+		return bound;
 	}
 
 	private boolean isGiant(HashSet<Fragment> xfs, Pattern pattern) {
 		return pattern.getSize() > 1 
-				&& (xfs.size() > Pattern.maxFreq || xfs.size() > pattern.getFragments().size() * pattern.getSize() * pattern.getSize());
+				&& (xfs.size() > context.getMaxFreq() || xfs.size() > pattern.getFragments().size() * pattern.getSize() * pattern.getSize());
 	}
 
-	private int mine(HashSet<Fragment> result, HashSet<Fragment> fragments, Pattern pattern, boolean isGiant) {
-		HashSet<HashSet<Fragment>> groups = group(fragments);
+	private int mine(HashSet<Fragment> result, HashSet<Fragment> fragments, Pattern pattern, boolean isGiant, int minCount) {
+		HashSet<HashSet<Fragment>> groups = group(fragments, minCount);
 		HashSet<Fragment> group = new HashSet<>();
-		int xfreq = Pattern.minFreq - 1;
+		int xfreq = minCount - 1;
 		for (HashSet<Fragment> g : groups) {
 			int freq = computeFrequency(g, isGiant && isGiant(g, pattern));
 			if (freq > xfreq) {
@@ -775,123 +1547,153 @@ public class Miner {
 		return xfreq;
 	}
 
-	private HashSet<HashSet<Fragment>> group(HashSet<Fragment> fragments) {
+	private HashSet<HashSet<Fragment>> group(HashSet<Fragment> fragments, int minCount) {
 		HashSet<HashSet<Fragment>> groups = new HashSet<>();
-		HashMap<Integer, HashSet<Fragment>> buckets = hash(fragments);
-		for (int h : buckets.keySet()) {
-			HashSet<Fragment> bucket = buckets.get(h);
-			group(groups, bucket);
-		}
+		for (ArrayList<Fragment> g : groupByVector(fragments))
+			group(g, groups, minCount);
 		return groups;
 	}
 
-	private HashMap<Integer, HashSet<Fragment>> hash(HashSet<Fragment> fragments) {
-		HashMap<Integer, HashSet<Fragment>> buckets = new HashMap<Integer, HashSet<Fragment>>();
+	/**
+	 * Splits the fragments into those of the same vector in one pass, by
+	 * their vector fingerprints. Vectors of the same fingerprint are still
+	 * compared, so a collision splits a bucket instead of merging groups.
+	 */
+	private ArrayList<ArrayList<Fragment>> groupByVector(Collection<Fragment> fragments) {
+		ArrayList<ArrayList<Fragment>> groups = new ArrayList<>();
+		HashMap<Long, ArrayList<ArrayList<Fragment>>> buckets = new HashMap<>();
 		for (Fragment f : fragments) {
-			int h = f.getVectorHashCode();
-			HashSet<Fragment> bucket = buckets.get(h);
+			long h = f.getVectorFingerprint();
+			ArrayList<ArrayList<Fragment>> bucket = buckets.get(h);
 			if (bucket == null) {
-				bucket = new HashSet<>();
+				bucket = new ArrayList<>(1);
 				buckets.put(h, bucket);
 			}
-			bucket.add(f);
+			ArrayList<Fragment> group = null;
+			for (ArrayList<Fragment> g : bucket) {
+				if (f.hasSameVector(g.get(0))) {
+					group = g;
+					break;
+				}
+			}
+			if (group == null) {
+				group = new ArrayList<>();
+				bucket.add(group);
+				groups.add(group);
+			}
+			group.add(f);
 		}
-		return buckets;
+		return groups;
 	}
 
 	private int computeFrequency(HashSet<Fragment> fragments, boolean isGiant) {
 		HashSet<String> entities = new HashSet<>();
+		HashMap<GROUMGraph, ArrayList<Fragment>> fragmentsOfGraph = getFragmentsOfGraph(fragments);
+		int freq = 0;
+		for (GROUMGraph g : fragmentsOfGraph.keySet()) {
+			if (context.getMode() > 0) // cross entities
+				entities.add(getEntity(g));
+			freq += count(g, fragmentsOfGraph.get(g), isGiant ? fragments : null);
+		}
+		if (context.getMode() > 0)
+			return entities.size();
+		return freq;
+	}
+
+	private static HashMap<GROUMGraph, ArrayList<Fragment>> getFragmentsOfGraph(Collection<Fragment> fragments) {
 		HashMap<GROUMGraph, ArrayList<Fragment>> fragmentsOfGraph = new HashMap<GROUMGraph, ArrayList<Fragment>>();
 		for (Fragment f : fragments) {
 			GROUMGraph g = f.getGraph();
-			if (Pattern.mode > 0) { // cross entities
-				String entity = g.getProject(); // cross projects
-				if (Pattern.mode == 1) // cross methods
-					entity += "," + g.getName();
-				else if (Pattern.mode == 2) { // cross commits
-					String name = g.getName();
-					entity += "," + name.substring(0, name.indexOf(','));
-				}
-				entities.add(entity);
-			}
 			ArrayList<Fragment> fs = fragmentsOfGraph.get(g);
 			if (fs == null)
 				fs = new ArrayList<Fragment>();
 			fs.add(f);
 			fragmentsOfGraph.put(g, fs);
 		}
-		int freq = 0;
-		for (GROUMGraph g : fragmentsOfGraph.keySet()) {
-			ArrayList<Fragment> fs = fragmentsOfGraph.get(g);
-			int i = 0;
-			while (i < fs.size()) {
-				Fragment f = fs.get(i);
-				int j = i + 1;
-				while (j < fs.size()) {
-					if (f.overlap(fs.get(j))) {
-						if (isGiant)
-							fragments.remove(fs.get(j));
-						fs.remove(j);
-					}
-					else
-						j++;
-				}
-				i++;
+		return fragmentsOfGraph;
+	}
+
+	/**
+	 * Counts the fragments of a graph greedily kept sharing no core action
+	 * with those kept before them.
+	 * 
+	 * @param fragments to remove the others from, null to keep them
+	 */
+	private static int count(GROUMGraph g, ArrayList<Fragment> fs, HashSet<Fragment> fragments) {
+		if (fs.size() == 1)
+			return 1;
+		Collections.sort(fs, Fragment.POSITION_ORDER);
+		long[] kept = new long[g.getCoreActions().length];
+		int count = 0;
+		for (Fragment f : fs) {
+			if (f.overlap(kept)) {
+				if (fragments != null)
+					fragments.remove(f);
+			} else {
+				f.addCoreActions(kept);
+				count++;
 			}
-			freq += i;
 		}
-		if (Pattern.mode > 0)
-			return entities.size();
-		return freq;
+		return count;
 	}
 
-	private void group(HashSet<HashSet<Fragment>> groups, HashSet<Fragment> bucket) {
-		while (!bucket.isEmpty()) {
-			Fragment f = null;
-			for (Fragment fragment : bucket) {
-				f = fragment;
-				break;
-			}
-			group(f, groups, bucket);
+	/**
+	 * @return the entity a graph counts for in the cross modes
+	 */
+	private String getEntity(GROUMGraph g) {
+		String entity = g.getProject(); // cross projects
+		if (context.getMode() == 1) // cross methods
+			entity += "," + g.getName();
+		else if (context.getMode() == 2) { // cross commits
+			String name = g.getName();
+			entity += "," + name.substring(0, name.indexOf(','));
 		}
+		return entity;
 	}
 
-	private void group(Fragment f, HashSet<HashSet<Fragment>> groups, HashSet<Fragment> bucket) {
-		HashSet<Fragment> group = new HashSet<>();
+	/**
+	 * @param fragments of the same vector
+	 * @param minCount the count for a frequency of the minimum
+	 */
+	private void group(ArrayList<Fragment> fragments, HashSet<HashSet<Fragment>> groups, int minCount) {
 		HashSet<Fragment> fs = new HashSet<>();
-		group.add(f);
-		fs.add(f.getGenFragmen());
-		bucket.remove(f);
-		f.setGenFragmen(null);
-		for (Fragment g : new HashSet<Fragment>(bucket)) {
-			if (f.getVector().equals(g.getVector())) {
-				group.add(g);
-				fs.add(g.getGenFragmen());
-				bucket.remove(g);
-				g.setGenFragmen(null);
-			}
-		}
-		if (fs.size() >= Pattern.minFreq && group.size() >= Pattern.minFreq) {
+		for (Fragment f : fragments) {
+			fs.add(f.getGenFragmen());
+			f.setGenFragmen(null);
+		}
+		if (fs.size() >= minCount && fragments.size() >= minCount) {
+			HashSet<Fragment> group = new HashSet<>(fragments);
 			removeDuplicates(group);
-			if (group.size() >= Pattern.minFreq)
+			if (group.size() >= minCount)
 				groups.add(group);
 		}
 	}
 
+	/**
+	 * Keeps one of the fragments of the same nodes, comparing only those of
+	 * the same sum of node indices.
+	 */
 	private void removeDuplicates(HashSet<Fragment> group) {
-		ArrayList<Fragment> l = new ArrayList<>(group);
-		int i = 0;
-		while (i < l.size() - 1) {
-			Fragment f = l.get(i);
-			int j = i + 1;
-			while (j < l.size()) {
-				if (f.isSameAs(l.get(j)))
-					l.remove(j);
-				else
-					j++;
-			}
-			i++;
-		}
-		group.retainAll(l);
+		HashMap<Integer, ArrayList<Fragment>> kept = new HashMap<>();
+		Iterator<Fragment> it = group.iterator();
+		while (it.hasNext()) {
+			Fragment f = it.next();
+			ArrayList<Fragment> fs = kept.get(f.getIdSum());
+			if (fs == null) {
+				fs = new ArrayList<>(1);
+				kept.put(f.getIdSum(), fs);
+			}
+			boolean isDuplicate = false;
+			for (Fragment g : fs) {
+				if (g.isSameAs(f)) {
+					isDuplicate = true;
+					break;
+				}
+			}
+			if (isDuplicate)
+				it.remove();
+			else
+				fs.add(f);
+		}
 	}
 }
@@ -0,0 +1,155 @@
+package mining;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import groum.GraphStore;
+import groum.LabelDictionary;
+
+/**
+ * Settings and counters of one mining run, shared by its {@link Miner} and
+ * the patterns and fragments it creates. Runs with their own contexts can
+ * go on at the same time, e.g. one per project, without seeing each other's
+ * ids or settings.
+ */
+public class MiningContext {
+	public static final int MODE_HYBRID = -1, MODE_WITHIN = 0, MODE_CROSS_METHODS = 1, MODE_CROSS_COMMITS = 2, MODE_CROSS_PROJECTS = 3;
+	public static final int DEFAULT_MIN_FREQ = 3, DEFAULT_MAX_FREQ = 1000;
+
+	private int mode = MODE_HYBRID;
+	private int minFreq = DEFAULT_MIN_FREQ, maxFreq = DEFAULT_MAX_FREQ;
+	private int sampleSize = 0;
+	private AtomicInteger nextPatternId = new AtomicInteger(1);
+	private AtomicLong fragmentIds = new AtomicLong(1);
+	private AtomicInteger numOfFragments = new AtomicInteger();
+	private ConcurrentHashMap<Long, Integer> pairIds = new ConcurrentHashMap<>();
+	private ConcurrentHashMap<Integer, Long> pairs = new ConcurrentHashMap<>();
+	private AtomicInteger nextPairId = new AtomicInteger();
+	private GraphStore store;
+
+	public MiningContext() {
+	}
+
+	public MiningContext(int mode, int minFreq) {
+		this.mode = mode;
+		this.minFreq = minFreq;
+	}
+
+	/**
+	 * @return -1 hybrid, 0 within, 1 cross methods, 2 cross commits, 3 cross
+	 * projects
+	 */
+	public int getMode() {
+		return mode;
+	}
+
+	public void setMode(int mode) {
+		this.mode = mode;
+	}
+
+	public int getMinFreq() {
+		return minFreq;
+	}
+
+	public void setMinFreq(int minFreq) {
+		this.minFreq = minFreq;
+	}
+
+	/**
+	 * @return the number of fragments of an extension above which the
+	 * overlapping ones are dropped while its frequency is counted
+	 */
+	public int getMaxFreq() {
+		return maxFreq;
+	}
+
+	public void setMaxFreq(int maxFreq) {
+		this.maxFreq = maxFreq;
+	}
+
+	/**
+	 * @return the number of extensions the giant extensions of a label are
+	 * sampled down to for estimating their support, 0 if they are all built
+	 * and counted
+	 */
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	public void setSampleSize(int sampleSize) {
+		this.sampleSize = sampleSize;
+	}
+
+	/**
+	 * @return the store the graphs are mined from, if any, through which
+	 * fragments of kept patterns get their graphs back
+	 */
+	public GraphStore getStore() {
+		return store;
+	}
+
+	public void setStore(GraphStore store) {
+		this.store = store;
+	}
+
+	int nextPatternId() {
+		return nextPatternId.getAndIncrement();
+	}
+
+	/**
+	 * @return the ids of the fragments not grown from a seed, see
+	 * {@link Growth#fragmentIds}
+	 */
+	AtomicLong getFragmentIds() {
+		return fragmentIds;
+	}
+
+	/**
+	 * @return a key for up to four label ids, equal for equal sequences of
+	 * labels within this run; missing ids are given as
+	 * {@link LabelDictionary#NONE}
+	 */
+	long pack(int id1, int id2, int id3, int id4) {
+		return LabelDictionary.pack(getPairId(LabelDictionary.pack(id1, id2)), getPairId(LabelDictionary.pack(id3, id4)));
+	}
+
+	private int getPairId(long pair) {
+		Integer id = pairIds.get(pair);
+		if (id != null)
+			return id;
+		id = nextPairId.getAndIncrement();
+		// before the id is out, so whoever gets the id finds the pair
+		pairs.put(id, pair);
+		Integer old = pairIds.putIfAbsent(pair, id);
+		if (old == null)
+			return id;
+		pairs.remove(id);
+		return old;
+	}
+
+	/**
+	 * Orders keys of {@link #pack(int, int, int, int)} by the label ids they
+	 * stand for, as the keys themselves depend on which labels seeds grown at
+	 * the same time happened to pack first.
+	 */
+	int compare(long key1, long key2) {
+		int c = Long.compare(pairs.get((int) (key1 >>> 32)), pairs.get((int) (key2 >>> 32)));
+		return c != 0 ? c : Long.compare(pairs.get((int) key1), pairs.get((int) key2));
+	}
+
+	void fragmentCreated() {
+		numOfFragments.incrementAndGet();
+	}
+
+	void fragmentDeleted() {
+		numOfFragments.decrementAndGet();
+	}
+
+	/**
+	 * @return the number of fragments created and not yet deleted
+	 */
+	public int getNumOfFragments() {
+		return numOfFragments.get();
+	}
+}
@@ -15,20 +15,20 @@ import java.util.HashSet;
 public class Pattern {
 	public static final int minSize = 3, maxSize = Integer.MAX_VALUE;
 	
-	public static int mode = -1; // -1 hybrid, 0 within, 1 cross methods, 2 cross commits, 3 cross projects
-	public static int minFreq = 3, maxFreq = 1000;
-	
-	public static int nextID = 1;
+	private MiningContext context;
 	private int id;
 	private int size = 0;
 	private Fragment representative;
 	private int freq = 0;
+	// of the graphs the fragments are from; the frequency is estimated below 1
+	private double sampleRate = 1;
 	private HashSet<Fragment> fragments = new HashSet<Fragment>();
 	
-	public Pattern(HashSet<Fragment> group, int freq) {
+	public Pattern(MiningContext context, HashSet<Fragment> group, int freq) {
+		this.context = context;
 		fragments = group;
 		for (Fragment f : fragments) {
-			size = f.getNodes().size();
+			size = f.getNumOfNodes();
 			representative = f;
 			break;
 		}
@@ -36,19 +36,25 @@ public class Pattern {
 		this.freq = freq;
 	}
 	
+	/**
+	 * Adds the pattern to the lattice of its size. Seeds grown in parallel
+	 * add to the same lattices, so the pattern gets its id only after all of
+	 * them are done.
+	 */
 	public void add2Lattice(ArrayList<Lattice> lattices) {
-		setId();
 		Lattice l = null;
-		if (lattices.size() < size) {
-			int s = size - lattices.size();
-			while (s > 0) {
-				l = new Lattice();
-				l.setStep(lattices.size() + 1);
-				lattices.add(l);
-				s--;
-			}
-		} else
-			l = lattices.get(size - 1);
+		synchronized (lattices) {
+			if (lattices.size() < size) {
+				int s = size - lattices.size();
+				while (s > 0) {
+					l = new Lattice();
+					l.setStep(lattices.size() + 1);
+					lattices.add(l);
+					s--;
+				}
+			} else
+				l = lattices.get(size - 1);
+		}
 		l.add(this);
 	}
 	
@@ -57,7 +63,7 @@ public class Pattern {
 	}
 	
 	public void setId() {
-		this.id = nextID++;
+		this.id = context.nextPatternId();
 	}
 
 	/**
@@ -102,6 +108,14 @@ public class Pattern {
 		this.freq = freq;
 	}
 
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	public void setSampleRate(double sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
 	/**
 	 * @return the genPatterns
 	 */
@@ -126,7 +140,7 @@ public class Pattern {
 			fs.add(f);
 			fragmentOfGraph.put(g, fs);
 		}
-		if (fragmentOfGraph.size() >= Pattern.minFreq)
+		if (fragmentOfGraph.size() >= context.getMinFreq())
 			this.freq = fragmentOfGraph.size();
 		else {
 			this.freq = 0;
@@ -149,7 +163,7 @@ public class Pattern {
 	}
 	
 	public boolean contains(Fragment fragment) {
-		if (this.size < fragment.getNodes().size())
+		if (this.size < fragment.getNumOfNodes())
 			return false;
 		for (Fragment f : fragments)
 			if (f.contains(fragment))
@@ -173,6 +187,17 @@ public class Pattern {
 		return true;
 	}
 
+	/**
+	 * Has the fragments drop the graphs they are from if these are in a
+	 * store, see {@link Fragment#release()}.
+	 */
+	void release() {
+		for (Fragment f : fragments)
+			f.release();
+		if (representative != null)
+			representative.release();
+	}
+
 	public void clear() {
 		this.representative = null;
 		for (Fragment f : this.fragments)
@@ -0,0 +1,109 @@
+package mining;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import change.LabelIndex;
+import groum.GROUMNode;
+
+/**
+ * Support of the seed pairs {@link Miner#mine} starts from, counted from a
+ * label index instead of the loaded graphs, and the graphs that contain a
+ * frequent seed. Graphs without one add nothing to any pattern, so only the
+ * others need to be loaded.
+ *
+ * Support is counted as in the miner: the old version nodes a pair label
+ * occurs on, for pairs whose first node is a core action. A node mapped to
+ * more than one node is counted under each of its pairs. Skipping graphs is
+ * only safe if the index covers every commit to be loaded, see
+ * {@link #covers}: occurrences in a commit missing from it could make a seed
+ * frequent whose graphs were skipped elsewhere. With full coverage, the
+ * support here is never below the one of the loaded graphs.
+ */
+public class SeedIndex {
+	private LabelIndex index;
+	private HashMap<String, Integer> support = new HashMap<>();
+	private HashSet<String> frequentSeeds = new HashSet<>();
+	private HashSet<String> graphs = new HashSet<>(), commits = new HashSet<>();
+
+	public SeedIndex(LabelIndex index, int minFreq) {
+		this.index = index;
+		HashMap<String, HashSet<Long>> occurrences = new HashMap<>();
+		HashMap<String, HashSet<Integer>> graphsOfLabel = new HashMap<>();
+		for (LabelIndex.Postings p : index.getPostings()) {
+			String left = toLabel(p.getLeft());
+			if (!GROUMNode.isCoreAction(left))
+				continue;
+			String label = left + Miner.PAIR_SEPARATOR + toLabel(p.getRight());
+			HashSet<Long> nodes = occurrences.get(label);
+			HashSet<Integer> gs = graphsOfLabel.get(label);
+			if (nodes == null) {
+				nodes = new HashSet<>();
+				occurrences.put(label, nodes);
+				gs = new HashSet<>();
+				graphsOfLabel.put(label, gs);
+			}
+			for (int i = 0; i < p.size(); i++) {
+				nodes.add(((long) p.getGraph(i) << 32) | p.getNode(i));
+				gs.add(p.getGraph(i));
+			}
+		}
+		for (String label : occurrences.keySet()) {
+			int n = occurrences.get(label).size();
+			support.put(label, n);
+			if (n >= minFreq) {
+				frequentSeeds.add(label);
+				for (int g : graphsOfLabel.get(label)) {
+					graphs.add(getName(index.getProject(g), index.getCommit(g), index.getMethod(g)));
+					commits.add(index.getProject(g) + "\n" + index.getCommit(g));
+				}
+			}
+		}
+	}
+
+	private String toLabel(int signature) {
+		return GROUMNode.toLabel((char) index.getAstNodeType(signature), index.getType(signature), index.getLabel(signature));
+	}
+
+	private static String getName(String project, String commit, String method) {
+		return project + "\n" + commit + "," + method;
+	}
+
+	public int getSupport(String label) {
+		Integer n = support.get(label);
+		return n == null ? 0 : n;
+	}
+
+	public Set<String> getFrequentSeeds() {
+		return frequentSeeds;
+	}
+
+	/**
+	 * @return whether all the commits of the project are in the index
+	 */
+	public boolean covers(String project, Collection<String> commits) {
+		for (String commit : commits)
+			if (index.getCommitId(project, commit) < 0)
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return false if the commit is in the index and none of its graphs has
+	 * a frequent seed
+	 */
+	public boolean isNeeded(String project, String commit) {
+		return index.getCommitId(project, commit) < 0 || commits.contains(project + "\n" + commit);
+	}
+
+	/**
+	 * @param method the file path and the method key, separated by a comma
+	 * @return false if the commit is in the index and the graph has no
+	 * frequent seed
+	 */
+	public boolean isNeeded(String project, String commit, String method) {
+		return index.getCommitId(project, commit) < 0 || graphs.contains(getName(project, commit, method));
+	}
+}